@@ -0,0 +1,154 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Where each block of a BGZF file starts, in the file and in the
+ * uncompressed data, as kept in the .gzi files of bgzip.  It maps
+ * uncompressed offsets to virtual offsets for BGZFInputStream.seek().
+ */
+public final class BGZFIndex {
+
+  // entry 0 is always the first block, at 0 and 0
+  private long[] caddr = new long[16];
+  private long[] uaddr = new long[16];
+  private int size = 1;
+
+  BGZFIndex(){
+  }
+
+  void add(long c, long u){
+    if(c == 0)
+      return;
+    if(size == caddr.length){
+      caddr = Arrays.copyOf(caddr, size*2);
+      uaddr = Arrays.copyOf(uaddr, size*2);
+    }
+    caddr[size] = c;
+    uaddr[size] = u;
+    size++;
+  }
+
+  /**
+   * Indexes a BGZF file by reading its block headers and trailers; the
+   * data is not inflated.
+   */
+  public static BGZFIndex build(InputStream in) throws IOException {
+    ReadableByteChannel ch = Channels.newChannel(in);
+    BGZFIndex index = new BGZFIndex();
+    byte[] head = new byte[12];
+    long c = 0;
+    long u = 0;
+    byte[] b;
+    while((b = BGZFInputStream.readBlock(ch, head)) != null){
+      int n = b.length;
+      long isize = (b[n-4]&0xff) | (b[n-3]&0xff)<<8 |
+                   (b[n-2]&0xff)<<16 | (long)(b[n-1]&0xff)<<24;
+      if(isize != 0)
+        index.add(c, u);
+      c += n;
+      u += isize;
+    }
+    return index;
+  }
+
+  /**
+   * @return the number of blocks indexed
+   */
+  public int size(){
+    return size;
+  }
+
+  /**
+   * Returns the virtual offset of the byte at offset in the
+   * uncompressed data.
+   */
+  public long getVirtualOffset(long offset){
+    if(offset < 0)
+      throw new IllegalArgumentException("offset: "+offset);
+    int lo = 0;
+    int hi = size - 1;
+    while(lo < hi){
+      int mid = (lo + hi + 1) >>> 1;
+      if(uaddr[mid] <= offset)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    long within = offset - uaddr[lo];
+    if(within > 0xffff)
+      throw new IllegalArgumentException("offset: "+offset);
+    return caddr[lo]<<16 | within;
+  }
+
+  /**
+   * Writes the index in the .gzi format: the number of entries and then
+   * the compressed and uncompressed offset of each block but the first,
+   * all as little-endian 64-bit integers.
+   */
+  public void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeLong(Long.reverseBytes(size - 1));
+    for(int i = 1; i < size; i++){
+      data.writeLong(Long.reverseBytes(caddr[i]));
+      data.writeLong(Long.reverseBytes(uaddr[i]));
+    }
+    data.flush();
+  }
+
+  /**
+   * Reads an index in the .gzi format.
+   */
+  public static BGZFIndex read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    long n = Long.reverseBytes(data.readLong());
+    if(n < 0 || n >= Integer.MAX_VALUE)
+      throw new GZIPException("invalid gzi index");
+    BGZFIndex index = new BGZFIndex();
+    long c = 0, u = 0;
+    for(long i = 0; i < n; i++){
+      long c1 = Long.reverseBytes(data.readLong());
+      long u1 = Long.reverseBytes(data.readLong());
+      if(c1 <= c || u1 < u)
+        throw new GZIPException("invalid gzi index");
+      index.add(c = c1, u = u1);
+    }
+    return index;
+  }
+}
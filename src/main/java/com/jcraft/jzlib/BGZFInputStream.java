@@ -0,0 +1,314 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads BGZF, as written by BGZFOutputStream or bgzip.
+ *
+ * <p>Positions are virtual offsets: the file offset of a block shifted
+ * left by 16, and the offset within its data.  Reading from a
+ * SeekableByteChannel, seek() goes to one, as got from
+ * getVirtualOffset(), BGZFOutputStream or a BGZFIndex.
+ *
+ * <p>Given an Executor, up to threads blocks ahead are read and inflated
+ * there.
+ */
+public class BGZFInputStream extends InputStream {
+
+  static final private int Z_STREAM_END=1;
+
+  private final ReadableByteChannel ch;
+  private final Executor executor;
+  private final int threads;
+  private final boolean close_in;
+  private final CodecPool pool;
+
+  private static final class Block {
+    final long address;
+    final long next;
+    final byte[] data;
+    final int len;
+
+    Block(long address, long next, byte[] data, int len){
+      this.address = address;
+      this.next = next;
+      this.data = data;
+      this.len = len;
+    }
+  }
+
+  private final ArrayDeque<CompletableFuture<Block>> pending = new ArrayDeque<>();
+  private final byte[] head = new byte[12];
+  private long address;         // of the next block to be read
+  private boolean ended;        // no more blocks to read
+
+  private Block block;
+  private int pos;
+
+  private boolean closed = false;
+
+  public BGZFInputStream(InputStream in) throws IOException {
+    this(Channels.newChannel(in), null, 1, true);
+  }
+
+  public BGZFInputStream(SeekableByteChannel ch) throws IOException {
+    this(ch, null, 1, true);
+  }
+
+  /**
+   * @param ch the file, seekable if a SeekableByteChannel
+   * @param executor where blocks are inflated, or null for this thread
+   * @param threads the most blocks inflated ahead
+   */
+  public BGZFInputStream(ReadableByteChannel ch,
+                         Executor executor,
+                         int threads,
+                         boolean close_in) throws IOException {
+    if (ch == null) {
+      throw new NullPointerException();
+    }
+    else if (threads < 1) {
+      throw new IllegalArgumentException("threads: "+threads);
+    }
+    this.ch = ch;
+    this.executor = executor;
+    this.threads = threads;
+    this.close_in = close_in;
+    this.pool = new CodecPool(threads);
+    if(ch instanceof SeekableByteChannel)
+      address = ((SeekableByteChannel)ch).position();
+  }
+
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    if (b == null) {
+      throw new NullPointerException();
+    }
+    else if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    else if (len == 0) {
+      return 0;
+    }
+
+    while(block == null || pos == block.len){
+      if(!next())
+        return -1;
+    }
+    int n = Math.min(len, block.len - pos);
+    System.arraycopy(block.data, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  public long skip(long n) throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    long total = 0;
+    while(total < n){
+      if(block == null || pos == block.len){
+        if(!next())
+          break;
+        continue;
+      }
+      int k = (int)Math.min(n - total, block.len - pos);
+      pos += k;
+      total += k;
+    }
+    return total;
+  }
+
+  public int available() throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    return block == null ? 0 : block.len - pos;
+  }
+
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      pending.clear();
+      block = null;
+      if(close_in)
+        ch.close();
+    }
+  }
+
+  /**
+   * Returns the virtual offset of the next byte to be read.
+   */
+  public long getVirtualOffset(){
+    if(block == null)
+      return address<<16;
+    if(pos == block.len)
+      return block.next<<16;
+    return block.address<<16 | pos;
+  }
+
+  /**
+   * Goes to a virtual offset.
+   */
+  public void seek(long offset) throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    if(!(ch instanceof SeekableByteChannel))
+      throw new IOException("not seekable");
+
+    long c = offset>>>16;
+    int u = (int)(offset & 0xffff);
+    if(block == null || block.address != c){
+      pending.clear();
+      block = null;
+      ((SeekableByteChannel)ch).position(c);
+      address = c;
+      ended = false;
+      if(!next() && u == 0)
+        return;
+    }
+    if(block == null || u > block.len)
+      throw new IOException("invalid virtual offset: "+offset);
+    pos = u;
+  }
+
+  // Moves on to the next block; false at the end.
+  private boolean next() throws IOException {
+    block = null;
+    pos = 0;
+    try{
+      while(!ended && pending.size() < (executor == null ? 1 : threads)){
+        long a = address;
+        byte[] b = readBlock(ch, head);
+        if(b == null){
+          ended = true;
+          break;
+        }
+        address += b.length;
+        if(executor == null){
+          pending.add(CompletableFuture.completedFuture(inflate(a, b)));
+        }
+        else{
+          pending.add(CompletableFuture.supplyAsync(() -> {
+                try{
+                  return inflate(a, b);
+                }
+                catch(GZIPException e){
+                  throw new CompletionException(e);
+                }
+              }, executor));
+        }
+      }
+      if(pending.isEmpty())
+        return false;
+      block = pending.poll().join();
+      return true;
+    }
+    catch(CompletionException e){
+      if(e.getCause() instanceof IOException)
+        throw (IOException)e.getCause();
+      throw e;
+    }
+  }
+
+  private Block inflate(long a, byte[] b) throws GZIPException {
+    Inflater inflater = pool.getInflater(15, JZlib.W_GZIP);
+    try{
+      byte[] data = new byte[BGZFOutputStream.MAX_BLOCK];
+      inflater.setInput(b, 0, b.length, false);
+      inflater.setOutput(data, 0, data.length);
+      int err = inflater.inflate(JZlib.Z_NO_FLUSH);
+      if(err != Z_STREAM_END || inflater.avail_in != 0)
+        throw new GZIPException(inflater.msg != null ?
+                                inflater.msg : "invalid BGZF block");
+      return new Block(a, a + b.length, data, inflater.next_out_index);
+    }
+    finally{
+      pool.release(inflater);
+    }
+  }
+
+  /**
+   * Reads a whole BGZF block, or returns null at the end of the input.
+   */
+  static byte[] readBlock(ReadableByteChannel ch, byte[] head) throws IOException {
+    int n = readFully(ch, head, 0, 12);
+    if(n == 0)
+      return null;
+    if(n < 12)
+      throw new EOFException("Unexpected end of BGZF input");
+    if(head[0] != 31 || head[1] != -117 || head[2] != 8 || (head[3] & 4) == 0)
+      throw new GZIPException("not a BGZF block");
+
+    int xlen = (head[10]&0xff) | (head[11]&0xff)<<8;
+    byte[] extra = new byte[xlen];
+    if(readFully(ch, extra, 0, xlen) < xlen)
+      throw new EOFException("Unexpected end of BGZF input");
+    int size = -1;
+    for(int i = 0; i + 4 <= xlen; ){
+      int slen = (extra[i+2]&0xff) | (extra[i+3]&0xff)<<8;
+      if(extra[i] == 66 && extra[i+1] == 67 && slen == 2 && i + 6 <= xlen){
+        size = ((extra[i+4]&0xff) | (extra[i+5]&0xff)<<8) + 1;
+        break;
+      }
+      i += 4 + slen;
+    }
+    if(size < 12 + xlen + 8)
+      throw new GZIPException("not a BGZF block");
+
+    byte[] b = new byte[size];
+    System.arraycopy(head, 0, b, 0, 12);
+    System.arraycopy(extra, 0, b, 12, xlen);
+    if(readFully(ch, b, 12 + xlen, size - 12 - xlen) < size - 12 - xlen)
+      throw new EOFException("Unexpected end of BGZF input");
+    return b;
+  }
+
+  private static int readFully(ReadableByteChannel ch, byte[] b, int off, int len) throws IOException {
+    ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+    while(buf.hasRemaining()){
+      if(ch.read(buf) < 0)
+        break;
+    }
+    return buf.position() - off;
+  }
+}
@@ -0,0 +1,257 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes BGZF, the blocked gzip format of SAMtools: a series of gzip
+ * members of at most 64K each, every one carrying its own compressed
+ * size in a "BC" extra subfield, and an empty member at the end.  Any
+ * gzip reader can read the result; BGZFInputStream can also seek in it.
+ *
+ * <p>Blocks are independent, so given an Executor they are compressed
+ * there, up to threads of them at once, and written in order.
+ *
+ * <p>flush() ends the current block.
+ */
+public class BGZFOutputStream extends FilterOutputStream {
+
+  static final private int Z_STREAM_END=1;
+
+  static final int BLOCK_DATA=0xff00;        // input per block, as bgzip
+  static final int MAX_BLOCK=1<<16;
+
+  static final byte[] EOF_BLOCK = {
+    31, -117, 8, 4, 0, 0, 0, 0, 0, -1, 6, 0, 66, 67, 2, 0,
+    27, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+  };
+
+  static final private byte[] BC = {66, 67, 2, 0, 0, 0};
+
+  private final int level;
+  private final Executor executor;
+  private final int threads;
+  private final boolean close_out;
+  private final CodecPool pool;
+
+  private byte[] data = new byte[BLOCK_DATA];
+  private int len;
+
+  private static final class Pending {
+    final CompletableFuture<byte[]> block;
+    final int len;
+
+    Pending(CompletableFuture<byte[]> block, int len){
+      this.block = block;
+      this.len = len;
+    }
+  }
+
+  private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+
+  private long caddr;           // compressed bytes written
+  private long uaddr;           // uncompressed bytes in them
+  private final BGZFIndex index = new BGZFIndex();
+
+  private boolean closed = false;
+
+  public BGZFOutputStream(OutputStream out) throws IOException {
+    this(out, JZlib.Z_DEFAULT_COMPRESSION);
+  }
+
+  public BGZFOutputStream(OutputStream out, int level) throws IOException {
+    this(out, level, null, 1, true);
+  }
+
+  /**
+   * @param executor where blocks are compressed, or null for this thread
+   * @param threads the most blocks compressed at once
+   */
+  public BGZFOutputStream(OutputStream out,
+                          int level,
+                          Executor executor,
+                          int threads,
+                          boolean close_out) throws IOException {
+    super(out);
+    if (out == null) {
+      throw new NullPointerException();
+    }
+    else if (threads < 1) {
+      throw new IllegalArgumentException("threads: "+threads);
+    }
+    this.level = level;
+    this.executor = executor;
+    this.threads = threads;
+    this.close_out = close_out;
+    this.pool = new CodecPool(threads);
+    // fails here on a bad level
+    pool.release(pool.getDeflater(level, 15, 8, JZlib.W_GZIP));
+  }
+
+  public void write(int b) throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    data[len++] = (byte)b;
+    if(len == BLOCK_DATA)
+      emit();
+  }
+
+  public void write(byte[] b, int off, int n) throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    if (off < 0 || n < 0 || n > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    while(n > 0){
+      int k = Math.min(n, BLOCK_DATA - len);
+      System.arraycopy(b, off, data, len, k);
+      len += k;
+      off += k;
+      n -= k;
+      if(len == BLOCK_DATA)
+        emit();
+    }
+  }
+
+  public void flush() throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    emit();
+    drain(0);
+    out.flush();
+  }
+
+  public void close() throws IOException {
+    if (!closed) {
+      try{
+        emit();
+        drain(0);
+        out.write(EOF_BLOCK);
+        caddr += EOF_BLOCK.length;
+        out.flush();
+      }
+      finally{
+        closed = true;
+        pool.clear();
+        if(close_out)
+          out.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the virtual offset of the next byte to be written, the
+   * address of its block shifted left by 16 and the offset within it.
+   * Blocks being compressed elsewhere are waited for.
+   */
+  public long getVirtualOffset() throws IOException {
+    drain(0);
+    return caddr<<16 | len;
+  }
+
+  /**
+   * Returns the index of the blocks written so far, as for a .gzi file.
+   */
+  public BGZFIndex getIndex() throws IOException {
+    if(!closed)
+      drain(0);
+    return index;
+  }
+
+  // Ends the current block, if any.
+  private void emit() throws IOException {
+    if(len == 0)
+      return;
+    if(executor == null){
+      put(block(data, len), len);
+    }
+    else{
+      byte[] d = data;
+      int n = len;
+      pending.add(new Pending(CompletableFuture.supplyAsync(() -> {
+            try{
+              return block(d, n);
+            }
+            catch(GZIPException e){
+              throw new CompletionException(e);
+            }
+          }, executor), n));
+      data = new byte[BLOCK_DATA];
+      drain(threads);
+    }
+    len = 0;
+  }
+
+  // Writes out pending blocks until at most max remain.
+  private void drain(int max) throws IOException {
+    while(pending.size() > max){
+      Pending p = pending.poll();
+      try{
+        put(p.block.join(), p.len);
+      }
+      catch(CompletionException e){
+        if(e.getCause() instanceof IOException)
+          throw (IOException)e.getCause();
+        throw e;
+      }
+    }
+  }
+
+  private void put(byte[] block, int n) throws IOException {
+    index.add(caddr, uaddr);
+    out.write(block);
+    caddr += block.length;
+    uaddr += n;
+  }
+
+  private byte[] block(byte[] d, int n) throws GZIPException {
+    Deflater deflater = pool.getDeflater(level, 15, 8, JZlib.W_GZIP);
+    try{
+      deflater.dstate.getGZIPHeader().setExtra(BC);
+      byte[] b = new byte[MAX_BLOCK];
+      deflater.setInput(d, 0, n, false);
+      deflater.setOutput(b, 0, b.length);
+      if(deflater.deflate(JZlib.Z_FINISH) != Z_STREAM_END)
+        throw new GZIPException("BGZF block overflow");
+      int size = deflater.next_out_index;
+      b[16] = (byte)(size-1);
+      b[17] = (byte)((size-1)>>8);
+      return Arrays.copyOf(b, size);
+    }
+    finally{
+      pool.release(deflater);
+    }
+  }
+}
@@ -0,0 +1,262 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/*
+ * This program is based on zlib-1.1.3, so all credit should go authors
+ * Jean-loup Gailly(jloup@gzip.org) and Mark Adler(madler@alumni.caltech.edu)
+ * and contributors of zlib.
+ */
+
+package com.jcraft.jzlib;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of Deflater and Inflater instances, keyed by level,
+ * window bits, memLevel and wrapper type.
+ *
+ * The pool is lock-free and holds no per-thread state, so it may be
+ * shared freely between platform and virtual threads.  Borrowed codecs
+ * must be given back with release() and must not be used afterwards.
+ */
+public final class CodecPool {
+
+  static final private int Z_OK=0;
+  static final private int Z_DEFAULT_STRATEGY=0;
+
+  // pool_key of an idle codec, held by the pool
+  static final private int IDLE=-2;
+
+  static final private int DEF_WBITS=15;
+  static final private int DEF_MEM_LEVEL=8;
+
+  // deflater keys: 10 levels * 7 window sizes (9..15) * 9 memLevels * 3 wrappers
+  static final private int DEFLATER_KEYS=10*7*9*3;
+  // inflater keys: 8 window sizes (8..15) * 4 wrappers
+  static final private int INFLATER_KEYS=8*4;
+
+  private final int capacity;
+
+  private final AtomicReferenceArray<AtomicReferenceArray<Deflater>> deflaters =
+    new AtomicReferenceArray<>(DEFLATER_KEYS);
+  private final AtomicReferenceArray<AtomicReferenceArray<Inflater>> inflaters =
+    new AtomicReferenceArray<>(INFLATER_KEYS);
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * @param capacity the number of idle codecs kept for each key
+   */
+  public CodecPool(int capacity){
+    if(capacity < 1)
+      throw new IllegalArgumentException("capacity: "+capacity);
+    this.capacity = capacity;
+  }
+
+  public CodecPool(){
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public Deflater getDeflater(int level) throws GZIPException {
+    return getDeflater(level, DEF_WBITS, DEF_MEM_LEVEL, JZlib.W_ZLIB);
+  }
+
+  public Deflater getDeflater(int level, int bits, int memlevel,
+                              JZlib.WrapperType wrapperType) throws GZIPException {
+    if(level == JZlib.Z_DEFAULT_COMPRESSION) level = 6;
+    int key = deflaterKey(level, bits, memlevel, wrapperType);
+    if(key < 0)
+      throw new GZIPException(JZlib.Z_STREAM_ERROR+": invalid parameters");
+
+    Deflater deflater = take(deflaters, key);
+    if(deflater != null){
+      deflater.pool_key = key;
+      hits.increment();
+      return deflater;
+    }
+    misses.increment();
+    deflater = new Deflater(level, bits, memlevel, wrapperType);
+    deflater.pool_key = key;
+    return deflater;
+  }
+
+  public Inflater getInflater() throws GZIPException {
+    return getInflater(DEF_WBITS, JZlib.W_ZLIB);
+  }
+
+  public Inflater getInflater(int bits, JZlib.WrapperType wrapperType) throws GZIPException {
+    int key = inflaterKey(bits, wrapperType);
+    if(key < 0)
+      throw new GZIPException(JZlib.Z_STREAM_ERROR+": invalid parameters");
+
+    Inflater inflater = take(inflaters, key);
+    if(inflater != null){
+      inflater.pool_key = key;
+      hits.increment();
+      return inflater;
+    }
+    misses.increment();
+    inflater = new Inflater(bits, wrapperType);
+    inflater.pool_key = key;
+    return inflater;
+  }
+
+  /**
+   * Gives the deflater back to the pool.  It is reset and returned to
+   * the level it was created with; if it has been ended, was not obtained
+   * from a pool, or there is no room left for it, it is ended instead.
+   *
+   * @return true if the deflater has been kept for reuse
+   * @throws IllegalStateException if the deflater is already back in a pool
+   */
+  public boolean release(Deflater deflater){
+    int key = deflater.pool_key;
+    if(key == IDLE)
+      throw new IllegalStateException("already released");
+    if(key < 0 ||
+       deflater.reset() != Z_OK ||
+       deflater.params(key%10, Z_DEFAULT_STRATEGY) != Z_OK){
+      deflater.end();
+      return false;
+    }
+    deflater.free();
+    deflater.pool_key = IDLE;
+    if(put(deflaters, key, deflater))
+      return true;
+    deflater.pool_key = -1;
+    deflater.end();
+    return false;
+  }
+
+  /**
+   * Gives the inflater back to the pool.
+   *
+   * @return true if the inflater has been kept for reuse
+   * @throws IllegalStateException if the inflater is already back in a pool
+   * @see #release(Deflater)
+   */
+  public boolean release(Inflater inflater){
+    int key = inflater.pool_key;
+    if(key == IDLE)
+      throw new IllegalStateException("already released");
+    if(key < 0 || inflater.reset() != Z_OK){
+      inflater.end();
+      return false;
+    }
+    inflater.free();
+    inflater.pool_key = IDLE;
+    if(put(inflaters, key, inflater))
+      return true;
+    inflater.pool_key = -1;
+    inflater.end();
+    return false;
+  }
+
+  /**
+   * Ends and drops all idle codecs.
+   */
+  public void clear(){
+    for(int i = 0; i < DEFLATER_KEYS; i++){
+      Deflater deflater;
+      while((deflater = take(deflaters, i)) != null)
+        deflater.end();
+    }
+    for(int i = 0; i < INFLATER_KEYS; i++){
+      Inflater inflater;
+      while((inflater = take(inflaters, i)) != null)
+        inflater.end();
+    }
+  }
+
+  /**
+   * @return the number of requests served by an idle codec
+   */
+  public long getHits(){
+    return hits.sum();
+  }
+
+  /**
+   * @return the number of requests that had to create a new codec
+   */
+  public long getMisses(){
+    return misses.sum();
+  }
+
+  static int deflaterKey(int level, int bits, int memlevel,
+                         JZlib.WrapperType wrapperType){
+    int wrapper = wrapperIndex(wrapperType);
+    if(level < 0 || level > 9 || bits < 9 || bits > 15 ||
+       memlevel < 1 || memlevel > 9 || wrapper < 0 || wrapper > 2){
+      return -1;
+    }
+    return ((wrapper*7 + (bits-9))*9 + (memlevel-1))*10 + level;
+  }
+
+  static int inflaterKey(int bits, JZlib.WrapperType wrapperType){
+    int wrapper = wrapperIndex(wrapperType);
+    if(bits < 8 || bits > 15 || wrapper < 0){
+      return -1;
+    }
+    return wrapper*8 + (bits-8);
+  }
+
+  private static int wrapperIndex(JZlib.WrapperType wrapperType){
+    if(wrapperType == JZlib.W_NONE) return 0;
+    if(wrapperType == JZlib.W_ZLIB) return 1;
+    if(wrapperType == JZlib.W_GZIP) return 2;
+    if(wrapperType == JZlib.W_ANY) return 3;
+    return -1;
+  }
+
+  private static <T> T take(AtomicReferenceArray<AtomicReferenceArray<T>> rows, int key){
+    AtomicReferenceArray<T> slots = rows.get(key);
+    if(slots == null)
+      return null;
+    for(int i = 0; i < slots.length(); i++){
+      T t = slots.get(i);
+      if(t != null && slots.compareAndSet(i, t, null))
+        return t;
+    }
+    return null;
+  }
+
+  private <T> boolean put(AtomicReferenceArray<AtomicReferenceArray<T>> rows, int key, T t){
+    AtomicReferenceArray<T> slots = rows.get(key);
+    if(slots == null){
+      rows.compareAndSet(key, null, new AtomicReferenceArray<>(capacity));
+      slots = rows.get(key);
+    }
+    for(int i = 0; i < slots.length(); i++){
+      if(slots.get(i) == null && slots.compareAndSet(i, null, t))
+        return true;
+    }
+    return false;
+  }
+}
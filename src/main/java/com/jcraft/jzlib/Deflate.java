@@ -34,6 +34,10 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 public 
 final class Deflate implements Cloneable {
 
@@ -144,7 +148,15 @@ final class Deflate implements Cloneable {
   static final private int Z_ASCII=1;
   static final private int Z_UNKNOWN=2;
 
-  static final private int Buf_size=8*2;
+  static final private int Buf_size=8*8;
+
+  static final private int MAX_STORED=65535;
+
+  // little-endian stores of the bit buffer into pending_buf
+  static final private VarHandle INT_LE =
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+  static final private VarHandle LONG_LE =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
 
   // repeat previous bit length 3-6 times (2 bits of repeat count)
   static final private int REP_3_6=16; 
@@ -172,6 +184,8 @@ final class Deflate implements Cloneable {
   ZStream strm;        // pointer back to this zlib stream
   int status;           // as the name implies
   byte[] pending_buf;   // output still pending
+  byte[] out_buf;       // where the bit writer stores bytes: pending_buf, or
+                        // strm.next_out while a block is written directly
   int pending_buf_size; // size of pending_buf
   int pending_out;      // next pending byte to output to the stream
   int pending;          // nb of bytes in the pending buffer
@@ -184,6 +198,9 @@ final class Deflate implements Cloneable {
   int w_bits;           // log2(w_size)  (8..16)
   int w_mask;           // w_size - 1
 
+  int req_w_bits;       // window bits given to deflateInit
+  int req_mem_level;    // memLevel given to deflateInit
+
   byte[] window;
   // Sliding window. Input bytes are read into the second half of the window,
   // and move to the first half later to keep a dictionary of at least wSize
@@ -313,7 +330,7 @@ final class Deflate implements Cloneable {
 
   // Output buffer. bits are inserted starting at the bottom (least
   // significant bits).
-  short bi_buf;
+  long bi_buf;
 
   // Number of valid bits in bi_buf.  All bits above the last valid bit
   // are always zero.
@@ -331,9 +348,12 @@ final class Deflate implements Cloneable {
   void lm_init() {
     window_size=2*w_size;
 
-    head[hash_size-1]=0;
-    for(int i=0; i<hash_size-1; i++){
-      head[i]=0;
+    // head is allocated lazily by alloc_buffers().
+    if(head!=null){
+      head[hash_size-1]=0;
+      for(int i=0; i<hash_size-1; i++){
+        head[i]=0;
+      }
     }
 
     // Set the default configuration parameters:
@@ -558,12 +578,12 @@ final class Deflate implements Cloneable {
   // Output a byte on the stream.
   // IN assertion: there is enough room in pending_buf.
   final void put_byte(byte[] p, int start, int len){
-    System.arraycopy(p, start, pending_buf, pending, len);
+    System.arraycopy(p, start, out_buf, pending, len);
     pending+=len;
   }
 
   final void put_byte(byte c){
-    pending_buf[pending++]=c;
+    out_buf[pending++]=c;
   }
   final void put_short(int w) {
     put_byte((byte)(w/*&0xff*/));
@@ -573,26 +593,30 @@ final class Deflate implements Cloneable {
     put_byte((byte)(b>>8));
     put_byte((byte)(b/*&0xff*/));
   }   
+  final void put_int(int w){
+    INT_LE.set(out_buf, pending, w);
+    pending+=4;
+  }
+  final void put_long(long w){
+    LONG_LE.set(out_buf, pending, w);
+    pending+=8;
+  }
 
   final void send_code(int c, short[] tree){
     int c2=c*2;
     send_bits((tree[c2]&0xffff), (tree[c2+1]&0xffff));
   }
 
+  // value must not have any bit set above length.
   void send_bits(int value, int length){
-    int len = length;
-    if (bi_valid > (int)Buf_size - len) {
-      int val = value;
-//      bi_buf |= (val << bi_valid);
-      bi_buf |= ((val << bi_valid)&0xffff);
-      put_short(bi_buf);
-      bi_buf = (short)(val >>> (Buf_size - bi_valid));
-      bi_valid += len - Buf_size;
-    } else {
-//      bi_buf |= (value) << bi_valid;
-      bi_buf |= (((value) << bi_valid)&0xffff);
-      bi_valid += len;
+    int total = bi_valid + length;
+    bi_buf |= (long)value << bi_valid;
+    if (total >= Buf_size) {
+      put_long(bi_buf);
+      bi_buf = (long)value >>> (Buf_size - bi_valid);
+      total -= Buf_size;
     }
+    bi_valid = total;
   }
 
   // Send one empty static block to give enough lookahead for inflate.
@@ -673,6 +697,18 @@ final class Deflate implements Cloneable {
     int code;       // the code to send
     int extra;      // number of extra bits to send
 
+    // The bit buffer is kept in locals and written out 32 bits at a time.
+    // With less than 32 bits pending, a literal (15 bits), a length code
+    // with its extra bits (20 bits) or a distance code with its extra
+    // bits (28 bits) always fits into the 64 bit buffer.
+    long bb = bi_buf;
+    int bv = bi_valid;
+    if (bv >= 32) {
+      put_int((int)bb);
+      bb >>>= 32;
+      bv -= 32;
+    }
+
     if (last_lit != 0){
       do{
 	dist=((pending_buf[d_buf+lx*2]<<8)&0xff00)|
@@ -680,33 +716,55 @@ final class Deflate implements Cloneable {
 	lc=(l_buf[lx])&0xff; lx++;
 
 	if(dist == 0){
-	  send_code(lc, ltree); // send a literal byte
+	  // send a literal byte
+	  bb |= (long)(ltree[lc*2]&0xffff) << bv;
+	  bv += ltree[lc*2+1];
 	} 
 	else{
 	  // Here, lc is the match length - MIN_MATCH
 	  code = Tree._length_code[lc];
 
-	  send_code(code+LITERALS+1, ltree); // send the length code
+	  // send the length code
+	  bb |= (long)(ltree[(code+LITERALS+1)*2]&0xffff) << bv;
+	  bv += ltree[(code+LITERALS+1)*2+1];
 	  extra = Tree.extra_lbits[code];
 	  if(extra != 0){
 	    lc -= Tree.base_length[code];
-	    send_bits(lc, extra);       // send the extra length bits
+	    bb |= (long)lc << bv;       // send the extra length bits
+	    bv += extra;
 	  }
+	  if (bv >= 32) {
+	    put_int((int)bb);
+	    bb >>>= 32;
+	    bv -= 32;
+	  }
+
 	  dist--; // dist is now the match distance - 1
 	  code = Tree.d_code(dist);
 
-	  send_code(code, dtree);       // send the distance code
+	  // send the distance code
+	  bb |= (long)(dtree[code*2]&0xffff) << bv;
+	  bv += dtree[code*2+1];
 	  extra = Tree.extra_dbits[code];
 	  if (extra != 0) {
 	    dist -= Tree.base_dist[code];
-	    send_bits(dist, extra);   // send the extra distance bits
+	    bb |= (long)dist << bv;     // send the extra distance bits
+	    bv += extra;
 	  }
 	} // literal or match pair ?
 
+	if (bv >= 32) {
+	  put_int((int)bb);
+	  bb >>>= 32;
+	  bv -= 32;
+	}
+
 	// Check that the overlay between pending_buf and d_buf+l_buf is ok:
       }
       while (lx < last_lit);
     }
+    bi_buf = bb;
+    bi_valid = bv;
 
     send_code(END_BLOCK, ltree);
     last_eob_len = ltree[END_BLOCK*2+1];
@@ -728,12 +786,12 @@ final class Deflate implements Cloneable {
 
   // Flush the bit buffer, keeping at most 7 bits in it.
   void bi_flush(){
-    if (bi_valid == 16) {
-      put_short(bi_buf);
-      bi_buf=0;
-      bi_valid=0;
+    if (bi_valid >= 32) {
+      put_int((int)bi_buf);
+      bi_buf>>>=32;
+      bi_valid-=32;
     }
-    else if (bi_valid >= 8) {
+    while (bi_valid >= 8) {
       put_byte((byte)bi_buf);
       bi_buf>>>=8;
       bi_valid-=8;
@@ -742,9 +800,8 @@ final class Deflate implements Cloneable {
 
   // Flush the bit buffer and align the output on a byte boundary
   void bi_windup(){
-    if (bi_valid > 8) {
-      put_short(bi_buf);
-    } else if (bi_valid > 0) {
+    bi_flush();
+    if (bi_valid > 0) {
       put_byte((byte)bi_buf);
     }
     bi_buf = 0;
@@ -783,59 +840,161 @@ final class Deflate implements Cloneable {
 
   // Copy without compression as much as possible from the input stream, return
   // the current block state.
-  // This function does not insert new strings in the dictionary since
-  // uncompressible data is probably not useful. This function is used
-  // only for the level=0 compression option.
-  // NOTE: this function should be optimized to avoid extra copying from
-  // window to pending_buf.
+  //
+  // In case deflateParams() is used to later switch to a non-zero compression
+  // level, head[] is cleared then, since this function does not insert new
+  // strings in the dictionary and does not slide it.
+  //
+  // Stored blocks are written directly from next_in to next_out as long as
+  // there is enough room for maximum-size blocks; otherwise the input is
+  // gathered in the window and emitted from there, as in zlib-1.2.11.
   int deflate_stored(int flush){
-    // Stored blocks are limited to 0xffff bytes, pending_buf is limited
-    // to pending_buf_size, and each stored block has a 5 byte header:
-
-    int max_block_size = 0xffff;
-    int max_start;
-
-    if(max_block_size > pending_buf_size - 5) {
-      max_block_size = pending_buf_size - 5;
-    }
+    // Smallest worthy block size when not flushing or finishing. By default
+    // this is 32K. This can be as small as 507 bytes for memLevel == 1. For
+    // large input and output buffers, the stored block size will be larger.
+    int min_block = Math.min(pending_buf_size - 5, w_size);
+
+    // Copy as many min_block or larger stored blocks directly to next_out as
+    // possible. If flushing, copy the remaining available input to next_out
+    // as stored blocks, if there is enough space.
+    int len, left, have;
+    boolean last = false;
+    int used = strm.avail_in;
+    do {
+      // Set len to the maximum size block that we can copy directly with the
+      // available input data and output space. Set left to how much of that
+      // would be copied from what's left in the window.
+      len = MAX_STORED;
+      have = (bi_valid + 42) >> 3;        // number of header bytes
+      if (strm.avail_out < have)          // need room for header
+        break;
+      // maximum stored block length that will fit in avail_out:
+      have = strm.avail_out - have;
+      left = strstart - block_start;      // bytes left in window
+      if (len > (long)left + strm.avail_in)
+        len = left + strm.avail_in;       // limit len to the input
+      if (len > have)
+        len = have;                       // limit len to the output
+
+      // If the stored block would be less than min_block in length, or if
+      // unable to copy all of the available input when flushing, then try
+      // copying to the window and the pending buffer instead. Also don't
+      // write an empty block when flushing -- deflate() does that.
+      if (len < min_block && ((len == 0 && flush != Z_FINISH) ||
+                              flush == Z_NO_FLUSH ||
+                              len != left + strm.avail_in))
+        break;
+
+      // Make a dummy stored block in pending to get the header bytes,
+      // including any pending bits. This also updates the debugging counts.
+      last = flush == Z_FINISH && len == left + strm.avail_in;
+      _tr_stored_block(0, 0, last);
+
+      // Replace the lengths in the dummy stored block with len.
+      pending_buf[pending - 4] = (byte)len;
+      pending_buf[pending - 3] = (byte)(len >> 8);
+      pending_buf[pending - 2] = (byte)~len;
+      pending_buf[pending - 1] = (byte)(~len >> 8);
+
+      // Write the stored block header bytes.
+      strm.flush_pending();
 
-    // Copy as much as possible from input to output:
-    while(true){
-      // Fill the window as much as possible:
-      if(lookahead<=1){
-	fill_window();
-	if(lookahead==0 && flush==Z_NO_FLUSH) return NeedMore;
-	if(lookahead==0) break; // flush the current block
+      // Copy uncompressed bytes from the window to next_out.
+      if (left != 0) {
+        if (left > len)
+          left = len;
+        System.arraycopy(window, block_start,
+                         strm.next_out, strm.next_out_index, left);
+        strm.next_out_index += left;
+        strm.avail_out -= left;
+        strm.total_out += left;
+        block_start += left;
+        len -= left;
       }
 
-      strstart+=lookahead;
-      lookahead=0;
-
-      // Emit a stored block if pending_buf will be full:
-      max_start=block_start+max_block_size;
-      if(strstart==0|| strstart>=max_start) {
-	// strstart == 0 is possible when wraparound on 16-bit machine
-	lookahead = (int)(strstart-max_start);
-	strstart = (int)max_start;
-      
-	flush_block_only(false);
-	if(strm.avail_out==0) return NeedMore;
-
+      // Copy uncompressed bytes directly from next_in to next_out, updating
+      // the check value.
+      if (len != 0) {
+        strm.read_buf(strm.next_out, strm.next_out_index, len);
+        strm.next_out_index += len;
+        strm.avail_out -= len;
+        strm.total_out += len;
       }
-
-      // Flush if we may have to slide, otherwise block_start may become
-      // negative and the data will be gone:
-      if(strstart-block_start >= w_size-MIN_LOOKAHEAD) {
-	flush_block_only(false);
-	if(strm.avail_out==0) return NeedMore;
+    } while (!last);
+
+    // Update the sliding window with the last w_size bytes of the copied
+    // data, or append all of the copied data to the existing window if less
+    // than w_size bytes were copied. Also update the number of bytes to
+    // insert in the hash tables, in the event that deflateParams() switches
+    // to a non-zero compression level.
+    used -= strm.avail_in;      // number of input bytes directly copied
+    if (used != 0) {
+      // If any input was used, then no unused input remains in the window,
+      // therefore block_start == strstart.
+      if (used >= w_size) {     // supplant the previous history
+        System.arraycopy(strm.next_in, strm.next_in_index - w_size,
+                         window, 0, w_size);
+        strstart = w_size;
+      }
+      else {
+        if (window_size - strstart <= used) {
+          // Slide the window down.
+          strstart -= w_size;
+          System.arraycopy(window, w_size, window, 0, strstart);
+        }
+        System.arraycopy(strm.next_in, strm.next_in_index - used,
+                         window, strstart, used);
+        strstart += used;
       }
+      block_start = strstart;
     }
 
-    flush_block_only(flush == Z_FINISH);
-    if(strm.avail_out==0)
-      return (flush == Z_FINISH) ? FinishStarted : NeedMore;
+    // If the last block was written to next_out, then done.
+    if (last)
+      return FinishDone;
+
+    // If flushing and all input has been consumed, then done.
+    if (flush != Z_NO_FLUSH && flush != Z_FINISH &&
+        strm.avail_in == 0 && strstart == block_start)
+      return BlockDone;
+
+    // Fill the window with any remaining input.
+    have = window_size - strstart - 1;
+    if (strm.avail_in > have && block_start >= w_size) {
+      // Slide the window down.
+      block_start -= w_size;
+      strstart -= w_size;
+      System.arraycopy(window, w_size, window, 0, strstart);
+      have += w_size;           // more space now
+    }
+    if (have > strm.avail_in)
+      have = strm.avail_in;
+    if (have != 0) {
+      strm.read_buf(window, strstart, have);
+      strstart += have;
+    }
 
-    return flush == Z_FINISH ? FinishDone : BlockDone;
+    // There was not enough avail_out to write a complete worthy or flushed
+    // stored block to next_out. Write a stored block to pending instead, if we
+    // have enough input for a worthy block, or if flushing and there is enough
+    // room for the remaining input as a stored block in the pending buffer.
+    have = (bi_valid + 42) >> 3;          // number of header bytes
+    // maximum stored block length that will fit in pending:
+    have = Math.min(pending_buf_size - have, MAX_STORED);
+    min_block = Math.min(have, w_size);
+    left = strstart - block_start;
+    if (left >= min_block ||
+        ((left != 0 || flush == Z_FINISH) && flush != Z_NO_FLUSH &&
+         strm.avail_in == 0 && left <= have)) {
+      len = Math.min(left, have);
+      last = flush == Z_FINISH && strm.avail_in == 0 && len == left;
+      _tr_stored_block(block_start, len, last);
+      block_start += len;
+      strm.flush_pending();
+    }
+
+    // We've done all we can with the available input and output.
+    return last ? FinishStarted : NeedMore;
   }
 
   // Send a stored block
@@ -883,6 +1042,17 @@ final class Deflate implements Cloneable {
       opt_lenb=static_lenb=stored_len+5; // force a stored block
     }
 
+    // If nothing is pending and the whole block fits into the caller's
+    // buffer, write it there directly instead of going through pending_buf.
+    // opt_lenb bounds the block, including a stored one, within a byte;
+    // the slack covers what is still in bi_buf and the final windup.
+    boolean direct = pending == 0 && (level > 0 || buf != -1) &&
+                     strm.avail_out >= opt_lenb + 16;
+    if(direct){
+      out_buf = strm.next_out;
+      pending = strm.next_out_index;
+    }
+
     if(stored_len+4<=opt_lenb && buf != -1){
       // 4: two words for the lengths
       // The test buf != NULL is only necessary if LIT_BUFSIZE > WSIZE.
@@ -910,6 +1080,15 @@ final class Deflate implements Cloneable {
     if(eof){
       bi_windup();
     }
+
+    if(direct){
+      int len = pending - strm.next_out_index;
+      strm.next_out_index = pending;
+      strm.avail_out -= len;
+      strm.total_out += len;
+      out_buf = pending_buf;
+      pending = 0;
+    }
   }
 
   // Fill the window when the lookahead becomes insufficient.
@@ -1364,6 +1543,21 @@ final class Deflate implements Cloneable {
     strm.dstate = (Deflate)this;
 
     this.wrap = wrap;
+    req_w_bits = windowBits;
+    req_mem_level = memLevel;
+
+    this.level = level;
+
+    this.strategy = strategy;
+    this.method = (byte)method;
+
+    return deflateReset();
+  }
+
+  // Sets the sizes of the window, hash table and literal buffer.  The
+  // buffers themselves are allocated by alloc_buffers() on first use,
+  // re-using the current ones if they are large enough.
+  void set_sizes(int windowBits, int memLevel){
     w_bits = windowBits;
     w_size = 1 << w_bits;
     w_mask = w_size - 1;
@@ -1373,29 +1567,54 @@ final class Deflate implements Cloneable {
     hash_mask = hash_size - 1;
     hash_shift = ((hash_bits+MIN_MATCH-1)/MIN_MATCH);
 
-    window = new byte[w_size*2];
-    prev = new short[w_size];
-    head = new short[hash_size];
-
     lit_bufsize = 1 << (memLevel + 6); // 16K elements by default
 
     // We overlay pending_buf and d_buf+l_buf. This works since the average
     // output size for (length,distance) codes is <= 24 bits.
-    pending_buf = new byte[lit_bufsize*3];
     pending_buf_size = lit_bufsize*3;
-
     d_buf = lit_bufsize;
-    l_buf = new byte[lit_bufsize];
+  }
 
-    this.level = level;
+  void alloc_buffers(){
+    if(window==null || window.length<w_size*2) window = new byte[w_size*2];
+    if(prev==null || prev.length<w_size) prev = new short[w_size];
+    if(head==null || head.length<hash_size) head = new short[hash_size];
+    if(pending_buf==null || pending_buf.length<pending_buf_size){
+      pending_buf = new byte[pending_buf_size];
+      out_buf = pending_buf;
+    }
+    if(l_buf==null || l_buf.length<lit_bufsize) l_buf = new byte[lit_bufsize];
+  }
 
-    this.strategy = strategy;
-    this.method = (byte)method;
+  // Shrinks the window and hash table for an input of the given length,
+  // so that the whole input fits in the window and it never has to
+  // slide.  A negative length restores the sizes given to deflateInit.
+  // Longer input is still compressed correctly, only with a smaller window.
+  int deflatePledge(long sourceLen){
+    if(strm.total_in != 0 || strm.total_out != 0 ||
+       strstart != 0 || lookahead != 0 ||
+       status != ((wrap==0) ? BUSY_STATE : INIT_STATE)){
+      return Z_STREAM_ERROR;
+    }
 
-    return deflateReset();
+    int bits = req_w_bits;
+    int memLevel = req_mem_level;
+    if(sourceLen >= 0){
+      while(bits > 9 && (1L<<(bits-1)) >= sourceLen+MIN_LOOKAHEAD){
+        bits--;
+      }
+      if(bits < req_w_bits){
+        memLevel = Math.max(1, Math.min(memLevel, bits-7));
+      }
+    }
+    set_sizes(bits, memLevel);
+    lm_init();
+    return Z_OK;
   }
 
   int deflateReset(){
+    set_sizes(req_w_bits, req_mem_level);
+
     strm.total_in = strm.total_out = 0;
     strm.msg = null; //
     strm.data_type = Z_UNKNOWN;
@@ -1422,6 +1641,7 @@ final class Deflate implements Cloneable {
     }
     // Deallocate in reverse order of allocations:
     pending_buf=null;
+    out_buf=null;
     l_buf=null;
     head=null;
     prev=null;
@@ -1446,9 +1666,22 @@ final class Deflate implements Cloneable {
        strm.total_in != 0) {
       // Flush the last buffer:
       err = strm.deflate(Z_PARTIAL_FLUSH);
+      if(err == Z_STREAM_ERROR)
+        return err;
+      // The new function can't take over a half-processed block; the
+      // caller has to provide more output space and try again.
+      if(strm.avail_in != 0 || (strstart - block_start) + lookahead != 0)
+        return Z_BUF_ERROR;
+      err = Z_OK;
     }
 
     if(level != _level) {
+      if(config_table[level].func==STORED && 
+         config_table[_level].func!=STORED && head != null){
+        // deflate_stored neither inserts strings nor slides head[].
+        for(int i=0; i<hash_size; i++)
+          head[i]=0;
+      }
       level = _level;
       max_lazy_match   = config_table[level].max_lazy;
       good_match       = config_table[level].good_length;
@@ -1466,6 +1699,8 @@ final class Deflate implements Cloneable {
     if(dictionary == null || status != INIT_STATE)
       return Z_STREAM_ERROR;
 
+    alloc_buffers();
+
     strm.adler.update(dictionary, 0, dictLength);
 
     if(length < MIN_MATCH) return Z_OK;
@@ -1510,6 +1745,8 @@ final class Deflate implements Cloneable {
       return Z_BUF_ERROR;
     }
 
+    alloc_buffers();
+
     old_flush = last_flush;
     last_flush = flush;
 
@@ -1700,6 +1937,7 @@ final class Deflate implements Cloneable {
     Deflate dest = (Deflate)super.clone();
 
     dest.pending_buf = dup(dest.pending_buf);
+    dest.out_buf = dest.pending_buf;
     dest.d_buf = dest.d_buf;
     dest.l_buf = dup(dest.l_buf);
     dest.window = dup(dest.window);
@@ -1733,16 +1971,19 @@ final class Deflate implements Cloneable {
   }
 
   private byte[] dup(byte[] buf){
+    if(buf == null) return null;
     byte[] foo = new byte[buf.length];
     System.arraycopy(buf, 0, foo, 0, foo.length);
     return foo;
   }
   private short[] dup(short[] buf){
+    if(buf == null) return null;
     short[] foo = new short[buf.length];
     System.arraycopy(buf, 0, foo, 0, foo.length);
     return foo;
   }
   private int[] dup(int[] buf){
+    if(buf == null) return null;
     int[] foo = new int[buf.length];
     System.arraycopy(buf, 0, foo, 0, foo.length);
     return foo;
@@ -59,6 +59,8 @@ final public class Deflater extends ZStream{
 
   private boolean finished = false;
 
+  int pool_key = -1;     // set by CodecPool
+
   public Deflater(){
     super();
   }
@@ -137,7 +139,7 @@ final public class Deflater extends ZStream{
     if(dstate==null){
       return Z_STREAM_ERROR;
     }
-    int ret = dstate.deflate(flush);
+    int ret = buffers() ? transfer(flush, true) : dstate.deflate(flush);
     if(ret == Z_STREAM_END)
       finished = true;
     return ret;
@@ -150,6 +152,29 @@ final public class Deflater extends ZStream{
     free();
     return ret;
   }
+  /**
+   * Resets this deflater so that it can compress a new stream with the
+   * same parameters, keeping all of its internal buffers.  The level and
+   * strategy set by params() are kept, and the gzip header is cleared.
+   */
+  public int reset(){
+    finished = false;
+    if(dstate==null) return Z_STREAM_ERROR;
+    dstate.gheader = null;
+    return dstate.deflateReset();
+  }
+
+  /**
+   * Tells the deflater how many bytes are going to be compressed, so that
+   * the window and hash tables are sized down for small inputs.  It must
+   * be called before any data is deflated, and -1 means "unknown".
+   * A longer input is still compressed correctly.
+   */
+  public int setPledgedSize(long size){
+    if(dstate==null) return Z_STREAM_ERROR;
+    return dstate.deflatePledge(size);
+  }
+
   public int params(int level, int strategy){
     if(dstate==null) return Z_STREAM_ERROR;
     return dstate.deflateParams(level, strategy);
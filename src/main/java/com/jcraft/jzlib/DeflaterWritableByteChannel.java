@@ -0,0 +1,224 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Deflates what is written to it on to a WritableByteChannel, working on
+ * ByteBuffers throughout.
+ * <p>
+ * The channel written to may be non-blocking.  Then write() returns how
+ * much of the input has been taken, which may be nothing while deflated
+ * output is still waiting for the channel, and flush() and finish()
+ * return false until all the output has gone; call them again once the
+ * channel is ready.
+ */
+public class DeflaterWritableByteChannel implements WritableByteChannel {
+
+  protected final Deflater deflater;
+
+  protected final WritableByteChannel out;
+
+  // deflated output not written yet, ready to be read
+  protected final ByteBuffer buffer;
+
+  protected boolean mydeflater = false;
+
+  private boolean closed = false;
+
+  private boolean syncFlush = false;
+
+  private boolean close_out = true;
+
+  protected static final int DEFAULT_BUFSIZE = 8192;
+
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  public DeflaterWritableByteChannel(WritableByteChannel out) throws GZIPException {
+    this(out,
+         new Deflater(JZlib.Z_DEFAULT_COMPRESSION),
+         DEFAULT_BUFSIZE, true);
+    mydeflater = true;
+  }
+
+  public DeflaterWritableByteChannel(WritableByteChannel out,
+                                     Deflater deflater) {
+    this(out, deflater, DEFAULT_BUFSIZE, true);
+  }
+
+  public DeflaterWritableByteChannel(WritableByteChannel out,
+                                     Deflater deflater,
+                                     int size,
+                                     boolean close_out) {
+    if (out == null || deflater == null) {
+      throw new NullPointerException();
+    }
+    else if (size <= 0) {
+      throw new IllegalArgumentException("buffer size must be greater than 0");
+    }
+    this.out = out;
+    this.deflater = deflater;
+    buffer = ByteBuffer.allocate(size);
+    buffer.flip();
+    this.close_out = close_out;
+  }
+
+  /**
+   * Deflates bytes from src, as far as the output can be written, and
+   * returns how many were taken.
+   */
+  public int write(ByteBuffer src) throws IOException {
+    ensureOpen();
+    if (deflater.finished()) {
+      throw new IOException("finished");
+    }
+    int flush = syncFlush ? JZlib.Z_SYNC_FLUSH : JZlib.Z_NO_FLUSH;
+    int start = src.position();
+    boolean full = false;
+    // a sync flush may need more than one buffer of output
+    while (drain() && (src.hasRemaining() || syncFlush && full)) {
+      full = deflate(flush, src);
+    }
+    return src.position() - start;
+  }
+
+  /**
+   * Flushes with Z_SYNC_FLUSH so that everything written so far can be
+   * inflated, and returns true when all of that output has been written.
+   */
+  public boolean flush() throws IOException {
+    ensureOpen();
+    while (drain()) {
+      if (deflater.finished() || !deflate(JZlib.Z_SYNC_FLUSH, EMPTY))
+        return drain();
+    }
+    return false;
+  }
+
+  /**
+   * Ends the compressed stream, and returns true when all its output has
+   * been written.
+   */
+  public boolean finish() throws IOException {
+    ensureOpen();
+    while (drain()) {
+      if (deflater.finished())
+        return true;
+      deflate(JZlib.Z_FINISH, EMPTY);
+    }
+    return false;
+  }
+
+  /**
+   * Finishes the stream and closes the channel.  With a non-blocking
+   * channel this spins until the channel takes the rest of the output,
+   * unless finish() has already returned true.
+   */
+  public void close() throws IOException {
+    if (!closed) {
+      while (!finish()) {
+        Thread.onSpinWait();
+      }
+      if (mydeflater) {
+        deflater.end();
+      }
+      if (close_out)
+        out.close();
+      closed = true;
+    }
+  }
+
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  // Deflates into the emptied buffer; returns true if it was filled.
+  private boolean deflate(int flush, ByteBuffer src) throws IOException {
+    buffer.clear();
+    deflater.setInput(src);
+    deflater.setOutput(buffer);
+    int err = deflater.deflate(flush);
+    switch (err) {
+      case JZlib.Z_OK:
+      case JZlib.Z_STREAM_END:
+        break;
+      case JZlib.Z_BUF_ERROR:
+        if (!src.hasRemaining() && flush != JZlib.Z_FINISH) {
+          // flush() without any data
+          break;
+        }
+      default:
+        buffer.flip().limit(0);
+        throw new IOException("failed to deflate: error="+err+" avail_out="+deflater.avail_out);
+    }
+    boolean full = !buffer.hasRemaining();
+    buffer.flip();
+    return full;
+  }
+
+  // Writes out the buffer; returns false if the channel did not take all.
+  private boolean drain() throws IOException {
+    while (buffer.hasRemaining()) {
+      if (out.write(buffer) == 0)
+        return false;
+    }
+    return true;
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  public long getTotalIn() {
+    return deflater.getTotalIn();
+  }
+
+  public long getTotalOut() {
+    return deflater.getTotalOut();
+  }
+
+  public void setSyncFlush(boolean syncFlush) {
+    this.syncFlush = syncFlush;
+  }
+
+  public boolean getSyncFlush() {
+    return this.syncFlush;
+  }
+
+  public Deflater getDeflater() {
+    return deflater;
+  }
+}
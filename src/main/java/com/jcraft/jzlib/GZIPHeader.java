@@ -127,6 +127,20 @@ public class GZIPHeader implements Cloneable {
     }
   }
 
+  /**
+   * Sets the extra field (FEXTRA), the subfields as laid out in the file,
+   * or null for none.
+   */
+  public void setExtra(byte[] extra){
+    if(extra!=null && extra.length>0xffff)
+      throw new IllegalArgumentException("extra field is too long: "+extra.length);
+    this.extra = extra==null ? null : extra.clone();
+  }
+
+  public byte[] getExtra(){
+    return extra==null ? null : extra.clone();
+  }
+
   public void setCRC(long crc){
     this.crc = crc;
   }
@@ -29,6 +29,9 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 public class GZIPInputStream extends InflaterInputStream {
 
@@ -66,12 +69,64 @@ public class GZIPInputStream extends InflaterInputStream {
     return inflater.istate.getGZIPHeader().getComment();
   }
 
+  public byte[] getExtra() {
+    return inflater.istate.getGZIPHeader().getExtra();
+  }
+
   public long getCRC() throws GZIPException {
     if(inflater.istate.mode != 12 /*DONE*/)
       throw new GZIPException("checksum is not calculated yet.");
     return inflater.istate.getGZIPHeader().getCRC();
   }
 
+  /**
+   * Continues with the next member of a multi-member gzip file, as made
+   * by concatenating gzip files.  Anything else following a member is
+   * left unread, in getAvailIn().
+   */
+  protected boolean nextStream() throws IOException {
+    if((inflater.istate.wrap & 2) == 0)
+      return false;
+
+    while(inflater.avail_in < 2){
+      // a byte left over may still be in buf
+      byte[] b = inflater.avail_in == 0 ? buf : new byte[buf.length];
+      int n = in.read(b, 0, b.length);
+      if(n == -1)
+        return false;
+      inflater.setInput(b, 0, n, true);
+    }
+    if((inflater.next_in[inflater.next_in_index] & 0xff) != 0x1f ||
+       (inflater.next_in[inflater.next_in_index + 1] & 0xff) != 0x8b)
+      return false;
+
+    inflater.reset();
+    return true;
+  }
+
+  // Reading a file from the start of a member, the ISIZE of its last
+  // member tells how much is left, unless there are several members or
+  // more than 4GB.  A pipe or a device has none.
+  long sizeHint(){
+    if(!(in instanceof FileInputStream) || inflater.total_out != 0)
+      return -1;
+    FileChannel ch = ((FileInputStream)in).getChannel();
+    long size, left;
+    ByteBuffer isize = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    try{
+      size = ch.size();
+      left = size - ch.position() + inflater.avail_in;
+      if(left < 4 || ch.read(isize, size - 4) != 4)
+        return -1;
+    }
+    catch(IOException e){
+      return -1;
+    }
+    long hint = isize.getInt(0) & 0xffffffffL;
+    // deflate expands by 1032 at most
+    return hint <= left * 1032 && hint <= MAX_ARRAY_SIZE ? hint : -1;
+  }
+
   public void readHeader() throws IOException {
 
     byte[] empty = "".getBytes();
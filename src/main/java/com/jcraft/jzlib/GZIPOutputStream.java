@@ -82,6 +82,11 @@ public class GZIPOutputStream extends DeflaterOutputStream {
     deflater.dstate.getGZIPHeader().setComment(comment);
   }
 
+  public void setExtra(byte[] extra) throws GZIPException {
+    check();
+    deflater.dstate.getGZIPHeader().setExtra(extra);
+  }
+
   public long getCRC() throws GZIPException {
     if(deflater.dstate.status != 666 /*FINISH_STATE*/)
       throw new GZIPException("checksum is not calculated yet.");
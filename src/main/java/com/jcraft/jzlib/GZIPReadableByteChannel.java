@@ -0,0 +1,101 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+public class GZIPReadableByteChannel extends InflaterReadableByteChannel {
+
+  public GZIPReadableByteChannel(ReadableByteChannel in) throws GZIPException {
+    this(in, DEFAULT_BUFSIZE, true);
+  }
+
+  public GZIPReadableByteChannel(ReadableByteChannel in,
+                                 int size,
+                                 boolean close_in) throws GZIPException {
+    this(in, new Inflater(15+16), size, close_in);
+    myinflater = true;
+  }
+
+  public GZIPReadableByteChannel(ReadableByteChannel in,
+                                 Inflater inflater,
+                                 int size,
+                                 boolean close_in) {
+    super(in, inflater, size, close_in);
+  }
+
+  public long getModifiedtime() {
+    return inflater.istate.getGZIPHeader().getModifiedTime();
+  }
+
+  public int getOS() {
+    return inflater.istate.getGZIPHeader().getOS();
+  }
+
+  public String getName() {
+    return inflater.istate.getGZIPHeader().getName();
+  }
+
+  public String getComment() {
+    return inflater.istate.getGZIPHeader().getComment();
+  }
+
+  public byte[] getExtra() {
+    return inflater.istate.getGZIPHeader().getExtra();
+  }
+
+  public long getCRC() throws GZIPException {
+    if(inflater.istate.mode != 12 /*DONE*/)
+      throw new GZIPException("checksum is not calculated yet.");
+    return inflater.istate.getGZIPHeader().getCRC();
+  }
+
+  /**
+   * Continues with the next member of a multi-member gzip file.  Anything
+   * else following a member is left unread.
+   */
+  protected int nextStream() throws IOException {
+    if((inflater.istate.wrap & 2) == 0)
+      return -1;
+
+    while(buf.remaining() < 2){
+      int n = fill();
+      if(n <= 0)
+        return n;
+    }
+    if((buf.get(buf.position()) & 0xff) != 0x1f ||
+       (buf.get(buf.position() + 1) & 0xff) != 0x8b)
+      return -1;
+
+    inflater.reset();
+    return 1;
+  }
+}
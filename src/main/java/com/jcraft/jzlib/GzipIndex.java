@@ -0,0 +1,340 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An index of access points into a gzip file, so that reading from the
+ * middle of it need not inflate everything before, as zlib's zran.c.
+ *
+ * <p>build() inflates the file once with Z_BLOCK and, at block boundaries
+ * about every span bytes of output, records where the block starts in
+ * the compressed file (down to the bit) and the 32K of output before it.
+ * open() then starts a raw Inflater at the access point just before the
+ * wanted offset, priming it with the bits of the boundary byte and the
+ * saved window as its dictionary.
+ *
+ * <p>Only the first member of the file is indexed.
+ */
+public final class GzipIndex {
+
+  static final private int Z_OK=0;
+  static final private int Z_STREAM_END=1;
+  static final private int Z_BUF_ERROR=-5;
+
+  static final private int WSIZE=1<<15;
+  static final private int MAGIC=0x4a5a4958;     // "JZIX"
+  static final private int VERSION=1;
+
+  public static final long DEFAULT_SPAN=1<<20;
+
+  static final private class Point {
+    final long out;        // offset in the uncompressed data
+    final long in;         // offset of the first whole byte of the block
+    final int bits;        // bits of the block in the byte before in
+    final int prime;       // those bits, at the bottom
+    final byte[] window;   // the output before out, up to WSIZE bytes
+
+    Point(long out, long in, int bits, int prime, byte[] window){
+      this.out = out;
+      this.in = in;
+      this.bits = bits;
+      this.prime = prime;
+      this.window = window;
+    }
+  }
+
+  private final List<Point> points;
+  private final long length;
+
+  private GzipIndex(List<Point> points, long length){
+    this.points = points;
+    this.length = length;
+  }
+
+  public static GzipIndex build(InputStream in) throws IOException {
+    return build(in, DEFAULT_SPAN);
+  }
+
+  /**
+   * Reads a gzip file from its start and indexes it.
+   *
+   * @param span the least amount of output between access points
+   */
+  public static GzipIndex build(InputStream in, long span) throws IOException {
+    if(span <= 0)
+      throw new IllegalArgumentException("span: "+span);
+
+    List<Point> points = new ArrayList<>();
+    Inflater inflater = new Inflater(JZlib.W_GZIP);
+    byte[] buf = new byte[1<<16];
+    byte[] out = new byte[WSIZE];
+    byte[] window = new byte[WSIZE];   // the last WSIZE bytes of output
+    int before = 0;                    // last byte of the previous buffer
+    long last = 0;
+    try{
+      while(true){
+        if(inflater.avail_in == 0){
+          if(inflater.next_in_index > 0){
+            before = buf[inflater.next_in_index - 1] & 0xff;
+          }
+          int n = in.read(buf, 0, buf.length);
+          if(n <= 0){
+            throw new EOFException("Unexpected end of gzip input");
+          }
+          inflater.setInput(buf, 0, n, false);
+        }
+        inflater.setOutput(out, 0, out.length);
+        int err = inflater.inflate(JZlib.Z_BLOCK);
+        if(err != Z_OK && err != Z_STREAM_END && err != Z_BUF_ERROR){
+          throw new GZIPException(inflater.msg);
+        }
+
+        int n = inflater.next_out_index;
+        System.arraycopy(window, n, window, 0, WSIZE - n);
+        System.arraycopy(out, 0, window, WSIZE - n, n);
+        if(err == Z_STREAM_END){
+          break;
+        }
+
+        int type = inflater.getDataType();
+        long total = inflater.total_out;
+        if((type & 128) != 0 && (type & 64) == 0 &&
+           (points.isEmpty() || total - last >= span)){
+          int bits = type & 7;
+          int prime = 0;
+          if(bits != 0){
+            int b = inflater.next_in_index > 0 ?
+              buf[inflater.next_in_index - 1] & 0xff : before;
+            prime = b >>> (8 - bits);
+          }
+          int w = (int)Math.min(WSIZE, total);
+          points.add(new Point(total, inflater.total_in, bits, prime,
+                               Arrays.copyOfRange(window, WSIZE - w, WSIZE)));
+          last = total;
+        }
+      }
+      return new GzipIndex(points, inflater.total_out);
+    }
+    finally{
+      inflater.end();
+    }
+  }
+
+  /**
+   * @return the number of access points
+   */
+  public int size(){
+    return points.size();
+  }
+
+  /**
+   * @return the length of the uncompressed data
+   */
+  public long length(){
+    return length;
+  }
+
+  /**
+   * Writes the index, with each window deflated.
+   */
+  public void write(OutputStream out) throws IOException {
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeLong(length);
+    data.writeInt(points.size());
+    Deflater deflater = new Deflater(JZlib.Z_BEST_COMPRESSION, true);
+    byte[] buf = new byte[WSIZE + 1024];
+    try{
+      for(Point p : points){
+        data.writeLong(p.out);
+        data.writeLong(p.in);
+        data.writeByte(p.bits);
+        data.writeByte(p.prime);
+        data.writeShort(p.window.length);
+        if(p.window.length == 0){
+          continue;
+        }
+
+        deflater.reset();
+        deflater.setInput(p.window, 0, p.window.length, false);
+        deflater.setOutput(buf, 0, buf.length);
+        if(deflater.deflate(JZlib.Z_FINISH) != Z_STREAM_END){
+          throw new GZIPException(deflater.msg);
+        }
+        data.writeShort(deflater.next_out_index);
+        data.write(buf, 0, deflater.next_out_index);
+      }
+    }
+    finally{
+      deflater.end();
+    }
+    data.flush();
+  }
+
+  /**
+   * Reads an index written by write().
+   */
+  public static GzipIndex read(InputStream in) throws IOException {
+    DataInputStream data = new DataInputStream(in);
+    if(data.readInt() != MAGIC || data.readInt() != VERSION){
+      throw new GZIPException("not a gzip index");
+    }
+    long length = data.readLong();
+    int n = data.readInt();
+    if(n <= 0){
+      throw new GZIPException("invalid gzip index");
+    }
+    List<Point> points = new ArrayList<>();
+    Inflater inflater = new Inflater(true);
+    byte[] buf = new byte[1<<16];
+    byte[] scratch = new byte[WSIZE+1];
+    try{
+      for(int i = 0; i < n; i++){
+        long out = data.readLong();
+        long pos = data.readLong();
+        int bits = data.readUnsignedByte();
+        int prime = data.readUnsignedByte();
+        byte[] window = new byte[data.readUnsignedShort()];
+        if(window.length > WSIZE){
+          throw new GZIPException("invalid gzip index");
+        }
+        if(window.length != 0){
+          int len = data.readUnsignedShort();
+          data.readFully(buf, 0, len);
+          inflate(inflater, buf, len, scratch, window);
+        }
+        points.add(new Point(out, pos, bits, prime, window));
+      }
+    }
+    finally{
+      inflater.end();
+    }
+    return new GzipIndex(points, length);
+  }
+
+  // Inflates a window written by write().  As in InflaterInputStream, a
+  // raw stream is followed by a dummy byte, as the end-of-block code may
+  // be shorter than what inflate waits for; and the output goes to
+  // scratch, one byte longer than any window, as inflate may stop short
+  // of the end of the stream when the output is exactly full.
+  private static void inflate(Inflater inflater, byte[] buf, int len,
+                              byte[] scratch, byte[] window) throws GZIPException {
+    inflater.reset();
+    buf[len] = 0;
+    inflater.setInput(buf, 0, len+1, false);
+    inflater.setOutput(scratch, 0, scratch.length);
+    if(inflater.inflate(JZlib.Z_NO_FLUSH) != Z_STREAM_END ||
+       inflater.next_out_index != window.length){
+      throw new GZIPException("invalid gzip index");
+    }
+    System.arraycopy(scratch, 0, window, 0, window.length);
+  }
+
+  /**
+   * Returns a stream of the uncompressed data from offset on, read from
+   * the indexed gzip file.  Closing the stream leaves the file open.
+   */
+  public InputStream open(SeekableByteChannel file, long offset) throws IOException {
+    if(offset < 0 || offset > length)
+      throw new IllegalArgumentException("offset: "+offset);
+
+    Point p = points.get(locate(offset));
+    Inflater inflater = new Inflater(true);
+    if(p.bits != 0){
+      inflater.prime(p.bits, p.prime);
+    }
+    if(p.window.length != 0){
+      inflater.setDictionary(p.window, p.window.length);
+    }
+    file.position(p.in);
+    InflaterInputStream in =
+      new InflaterInputStream(Channels.newInputStream(file), inflater,
+                              1<<14, false);
+    in.myinflater = true;
+
+    long skip = offset - p.out;
+    while(skip > 0){
+      long n = in.skip(skip);
+      if(n <= 0){
+        throw new EOFException("Unexpected end of gzip input");
+      }
+      skip -= n;
+    }
+    return in;
+  }
+
+  /**
+   * Reads up to len bytes of uncompressed data from offset on.
+   *
+   * @return the number of bytes read, or -1 at the end of the data
+   */
+  public int read(SeekableByteChannel file, long offset,
+                  byte[] b, int off, int len) throws IOException {
+    if(offset >= length)
+      return len == 0 ? 0 : -1;
+    try(InputStream in = open(file, offset)){
+      int n = 0;
+      while(n < len){
+        int r = in.read(b, off + n, len - n);
+        if(r < 0)
+          break;
+        n += r;
+      }
+      return n;
+    }
+  }
+
+  // index of the last access point at or before offset
+  private int locate(long offset){
+    int lo = 0;
+    int hi = points.size() - 1;
+    while(lo < hi){
+      int mid = (lo + hi + 1) >>> 1;
+      if(points.get(mid).out <= offset)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    return lo;
+  }
+}
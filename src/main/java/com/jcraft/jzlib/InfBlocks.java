@@ -35,7 +35,17 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package com.jcraft.jzlib;
 
 final class InfBlocks{
-  static final private int MANY=1440;
+  // A dynamic block gets a multi-literal table if it is expected to take
+  // at least this many input bytes.
+  static final private int MULTI_MIN=2048;
+
+  // No block header takes more input than this (286+30 code lengths of
+  // at most 7 bits after 74 bits of counts), so with this much at hand
+  // fast_blocks reads headers without checking for the end of input.
+  static final int FAST_IN=320;
+
+  // The window starts this small and doubles as the stream needs it.
+  static final private int WINDOW_MIN=1024;
 
   // And'ing with mask[n] masks the lower n bits
   static final private int[] inflate_mask = {
@@ -60,14 +70,14 @@ final class InfBlocks{
   static final private int Z_BUF_ERROR=-5;
   static final private int Z_VERSION_ERROR=-6;
 
-  static final private int TYPE=0;  // get type bits (3, including end bit)
+  static final int TYPE=0;          // get type bits (3, including end bit)
   static final private int LENS=1;  // get lengths for stored
-  static final private int STORED=2;// processing stored block
+  static final int STORED=2;        // processing stored block
   static final private int TABLE=3; // get table lengths
   static final private int BTREE=4; // get bit lengths tree for a dynamic block
   static final private int DTREE=5; // get length, distance trees for a dynamic block
-  static final private int CODES=6; // processing fixed or dynamic block
-  static final private int DRY=7;   // output remaining window bytes
+  static final int CODES=6;         // processing fixed or dynamic block
+  static final int DRY=7;           // output remaining window bytes
   static final private int DONE=8;  // finished last block, done
   static final private int BAD=9;   // ot a data error--stuck here
 
@@ -78,16 +88,7 @@ final class InfBlocks{
   int table;           // table lengths (14 bits) 
   int index;           // index into blens (or border) 
   int[] blens;         // bit lengths of codes 
-  int[] bb=new int[1]; // bit length tree depth 
-  int[] tb=new int[1]; // bit length decoding tree 
-
-  int[] bl=new int[1];
-  int[] bd=new int[1];
-
-  int[][] tl=new int[1][];
-  int[][] td=new int[1][];
-  int[] tli=new int[1]; // tl_index
-  int[] tdi=new int[1]; // td_index
+  int[] btree=new int[1<<7]; // bit length decoding tree 
 
   private final InfCodes codes;      // if CODES, current state 
 
@@ -97,11 +98,20 @@ final class InfBlocks{
   int bitk;            // bits in bit buffer 
   int bitb;            // bit buffer 
   int[] hufts;         // single malloc for tree space 
-  byte[] window;       // sliding window 
+  int[] multi;         // multi-literal table, allocated on first use
+  boolean multi_ok;    // multi is built from the tables in hufts
+  long block_in;       // input position at the start of this block
+  long last_in;        // input size of the previous block, or -1
+  byte[] window;       // sliding window, allocated on first use
   int end;             // one byte after sliding window 
+  int wmax;            // size the window may grow to
+  private final int wsize;
   int read;            // window read pointer 
   int write;           // window write pointer 
   private boolean check;
+  boolean block_stop;  // return at each block boundary (Z_BLOCK)
+  boolean discard;     // output is counted and checked, but not copied
+  private boolean stopped; // returned at this boundary, output pending
 
   private final InfTree inftree=new InfTree();
 
@@ -110,9 +120,8 @@ final class InfBlocks{
   InfBlocks(ZStream z, int w){
     this.z=z;
     this.codes=new InfCodes(this.z, this);
-    hufts=new int[MANY*3];
-    window=new byte[w];
-    end=w;
+    hufts=new int[InfTree.ENOUGH];
+    wsize=w;
     this.check = (z.istate.wrap==0) ? false : true;
     mode = TYPE;
     reset();
@@ -125,9 +134,15 @@ final class InfBlocks{
       codes.free(z);
     }
     mode=TYPE;
+    last=0;
+    stopped=false;
     bitk=0;
     bitb=0;
     read=write=0;
+    wmax=wsize;
+    end=window==null ? 0 : Math.min(window.length, wmax);
+    block_in=-1;
+    last_in=-1;
     if(check){
       z.adler.reset();
     }
@@ -141,6 +156,11 @@ final class InfBlocks{
     int n;              // bytes available there
     int q;              // output window write pointer
     int m;              // bytes to end of window or read pointer
+    boolean moved = mode!=TYPE || stopped;
+
+    if(end==0){
+      grow(1);
+    }
 
     // copy input/output information to locals (UPDATE macro restores)
     {p=z.next_in_index;n=z.avail_in;b=bitb;k=bitk;}
@@ -150,6 +170,33 @@ final class InfBlocks{
     while(true){
       switch (mode){
       case TYPE:
+	if(block_stop && moved){
+	  // stop here until all the output has gone out
+	  bitb=b; bitk=k; 
+	  z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
+	  write=q;
+	  r=inflate_flush(r);
+	  stopped = read!=write;
+	  return r;
+	}
+	moved=true;
+	stopped=false;
+
+	if(n>=FAST_IN && !block_stop){
+	  bitb=b; bitk=k; 
+	  z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
+	  write=q;
+	  t=fast_blocks();
+	  p=z.next_in_index;n=z.avail_in;b=bitb;k=bitk;
+	  q=write;m=(int)(q<read?read-q-1:end-q);
+	  r=t;
+	  if(r!=Z_OK){
+	    return inflate_flush(r);
+	  }
+	  if(mode!=TYPE){
+	    break;
+	  }
+	}
 
 	while(k<(3)){
 	  if(n!=0){
@@ -169,6 +216,12 @@ final class InfBlocks{
 	t = (int)(b & 7);
 	last = t & 1;
 
+	{
+	  long in=z.total_in+p-z.next_in_index;
+	  last_in = block_in<0 ? -1 : in-block_in;
+	  block_in = in;
+	}
+
 	switch (t >>> 1){
         case 0:                         // stored 
           {b>>>=(3);k-=(3);}
@@ -178,8 +231,8 @@ final class InfBlocks{
           mode = LENS;                  // get length of stored block
           break;
         case 1:                         // fixed
-          InfTree.inflate_trees_fixed(bl, bd, tl, td, z);
-          codes.init(bl[0], bd[0], tl[0], 0, td[0], 0);
+          codes.init(InfTree.fixed_bl, InfTree.fixed_bd,
+                     InfTree.fixed_tl, 0, InfTree.fixed_td, 0, null);
 
           {b>>>=(3);k-=(3);}
 
@@ -244,16 +297,33 @@ final class InfBlocks{
 	  return inflate_flush(r);
 	}
 
+	if(q==read && z.avail_out!=0 && !discard){
+	  // nothing waiting in the window, so copy straight to next_out
+	  r=Z_OK;
+	  t = left;
+	  if(t>n) t = n;
+	  if(t>z.avail_out) t = z.avail_out;
+	  System.arraycopy(z.next_in, p, z.next_out, z.next_out_index, t);
+	  p += t;  n -= t;
+	  write=q;
+	  direct_written(z.next_out_index, z.next_out_index+t);
+	  q=write;m=(int)(q<read?read-q-1:end-q);
+	  if ((left -= t) != 0)
+	    break;
+	  mode = last!=0 ? DRY : TYPE;
+	  break;
+	}
+
 	if(m==0){
-	  if(q==end&&read!=0){
-	    q=0; m=(int)(q<read?read-q-1:end-q);
+	  if(q==end&&(read!=0||end<wmax)){
+	    q=wrap(q); m=(int)(q<read?read-q-1:end-q);
 	  }
 	  if(m==0){
 	    write=q; 
 	    r=inflate_flush(r);
 	    q=write;m=(int)(q<read?read-q-1:end-q);
-	    if(q==end&&read!=0){
-	      q=0; m=(int)(q<read?read-q-1:end-q);
+	    if(q==end&&(read!=0||end<wmax)){
+	      q=wrap(q); m=(int)(q<read?read-q-1:end-q);
 	    }
 	    if(m==0){
 	      bitb=b; bitk=k; 
@@ -344,8 +414,7 @@ final class InfBlocks{
 	  blens[border[index++]] = 0;
 	}
 
-	bb[0] = 7;
-	t = inftree.inflate_trees_bits(blens, bb, tb, hufts, z);
+	t = inftree.inflate_trees_bits(blens, btree, z);
 	if (t != Z_OK){
 	  r = t;
 	  if (r == Z_DATA_ERROR){
@@ -371,7 +440,7 @@ final class InfBlocks{
 	  int[] h;
 	  int i, j, c;
 
-	  t = bb[0];
+	  t = inftree.bb;
 
 	  while(k<(t)){
 	    if(n!=0){
@@ -389,12 +458,9 @@ final class InfBlocks{
 	    k+=8;
 	  }
 
-	  if(tb[0]==-1){
-            //System.err.println("null...");
-	  }
-
-	  t=hufts[(tb[0]+(b&inflate_mask[t]))*3+1];
-	  c=hufts[(tb[0]+(b&inflate_mask[t]))*3+2];
+	  c=btree[b&inflate_mask[t]];
+	  t=InfTree.bits(c);
+	  c=InfTree.value(c);
 
 	  if (c < 16){
 	    b>>>=(t);k-=(t);
@@ -450,14 +516,11 @@ final class InfBlocks{
 	  }
 	}
 
-	tb[0]=-1;
 	{
-	  bl[0] = 9;         // must be <= 9 for lookahead assumptions
-	  bd[0] = 6;         // must be <= 9 for lookahead assumptions
 	  t = table;
 	  t = inftree.inflate_trees_dynamic(257 + (t & 0x1f), 
 					    1 + ((t >> 5) & 0x1f),
-					    blens, bl, bd, tli, tdi, hufts, z);
+					    blens, hufts, z);
 
 	  if (t != Z_OK){
 	    if (t == Z_DATA_ERROR){
@@ -471,7 +534,7 @@ final class InfBlocks{
 	    write=q;
 	    return inflate_flush(r);
 	  }
-	  codes.init(bl[0], bd[0], hufts, tli[0], hufts, tdi[0]);
+	  init_codes(n);
 	}
 	mode = CODES;
       case CODES:
@@ -488,6 +551,9 @@ final class InfBlocks{
 	p=z.next_in_index; n=z.avail_in;b=bitb;k=bitk;
 	q=write;m=(int)(q<read?read-q-1:end-q);
 
+	if (mode==STORED){  // inflate_fast went on into a stored block
+	  break;
+	}
 	if (last==0){
 	  mode = TYPE;
 	  break;
@@ -530,24 +596,302 @@ final class InfBlocks{
     }
   }
 
+  // Decodes block after block as long as FAST_IN bytes of input are at
+  // hand: headers are read by fast_header, and the codes go straight to
+  // inflate_fast, which runs on into the following blocks by itself
+  // where it can.  Stored blocks, the end of the last block, and running
+  // short of input or output leave mode set where proc carries on.
+  // Returns Z_OK or Z_DATA_ERROR.
+  private int fast_blocks(){
+    while(z.avail_in>=FAST_IN){
+      int t=fast_header();
+      if(t!=Z_OK){
+	return t;
+      }
+      if(mode==CODES){
+	t=codes.fast();
+	if(t!=Z_STREAM_END){
+	  return t;
+	}
+	if(mode==CODES){
+	  if(last!=0){
+	    return Z_OK;        // codes.proc washes up
+	  }
+	  codes.free(z);
+	  mode=TYPE;
+	}
+      }
+      if(mode!=TYPE){
+	return Z_OK;
+      }
+    }
+    return Z_OK;
+  }
+
+  // Reads a block header, and the code lengths of a dynamic block, with
+  // the bit buffer in locals and without checking for the end of the
+  // input, which must hold FAST_IN bytes.  Sets up codes and mode CODES
+  // for a fixed or dynamic block, or mode STORED with left set for a
+  // stored one (TYPE or DRY if it is empty).  Returns Z_OK or
+  // Z_DATA_ERROR.
+  int fast_header(){
+    byte[] in=z.next_in;
+    int p=z.next_in_index;
+    int b=bitb;
+    int k=bitk;
+    int t;
+
+    while(k<3){
+      b|=(in[p++]&0xff)<<k;
+      k+=8;
+    }
+    t=b&7;
+    last=t&1;
+    b>>>=3; k-=3;
+    {
+      long in_pos=z.total_in+p-z.next_in_index;
+      last_in = block_in<0 ? -1 : in_pos-block_in;
+      block_in = in_pos;
+    }
+
+    switch(t>>>1){
+    case 0:                           // stored
+      t=k&7;
+      b>>>=t; k-=t;
+      while(k<32){
+        b|=(in[p++]&0xff)<<k;
+        k+=8;
+      }
+      if((((~b) >>> 16) & 0xffff) != (b & 0xffff)){
+        save(b, k, p);
+        mode=BAD;
+        z.msg="invalid stored block lengths";
+        return Z_DATA_ERROR;
+      }
+      left=b & 0xffff;
+      save(0, 0, p);
+      mode = left!=0 ? STORED : (last!=0 ? DRY : TYPE);
+      return Z_OK;
+    case 1:                           // fixed
+      save(b, k, p);
+      codes.init(InfTree.fixed_bl, InfTree.fixed_bd,
+                 InfTree.fixed_tl, 0, InfTree.fixed_td, 0, null);
+      mode=CODES;
+      return Z_OK;
+    case 2:                           // dynamic
+      break;
+    default:                          // illegal
+      save(b, k, p);
+      mode=BAD;
+      z.msg="invalid block type";
+      return Z_DATA_ERROR;
+    }
+
+    while(k<14){
+      b|=(in[p++]&0xff)<<k;
+      k+=8;
+    }
+    t=b&0x3fff;
+    b>>>=14; k-=14;
+    if((t & 0x1f) > 29 || ((t >> 5) & 0x1f) > 29){
+      save(b, k, p);
+      mode=BAD;
+      z.msg="too many length or distance symbols";
+      return Z_DATA_ERROR;
+    }
+    int nl=257 + (t & 0x1f);
+    int nd=1 + ((t >> 5) & 0x1f);
+    if(blens==null || blens.length<nl+nd){
+      blens=new int[nl+nd];
+    }
+    else{
+      for(int i=0; i<nl+nd; i++){blens[i]=0;}
+    }
+    int[] c=blens;
+
+    int i=0;
+    for(int nc=4+(t>>>10); i<nc; i++){
+      while(k<3){
+        b|=(in[p++]&0xff)<<k;
+        k+=8;
+      }
+      c[border[i]]=b&7;
+      b>>>=3; k-=3;
+    }
+    for(; i<19; i++){
+      c[border[i]]=0;
+    }
+    if(inftree.inflate_trees_bits(c, btree, z)!=Z_OK){
+      save(b, k, p);
+      blens=null;
+      mode=BAD;
+      return Z_DATA_ERROR;
+    }
+
+    int bb=inftree.bb;
+    int bm=inflate_mask[bb];
+    i=0;
+    while(i<nl+nd){
+      while(k<bb){
+        b|=(in[p++]&0xff)<<k;
+        k+=8;
+      }
+      int h=btree[b&bm];
+      int v=InfTree.value(h);
+      b>>>=InfTree.bits(h); k-=InfTree.bits(h);
+      if(v<16){
+        c[i++]=v;
+        continue;
+      }
+      int e=v==18 ? 7 : v-14;
+      while(k<e){
+        b|=(in[p++]&0xff)<<k;
+        k+=8;
+      }
+      int j=(v==18 ? 11 : 3) + (b & inflate_mask[e]);
+      b>>>=e; k-=e;
+      if(i+j>nl+nd || (v==16 && i<1)){
+        save(b, k, p);
+        blens=null;
+        mode=BAD;
+        z.msg="invalid bit length repeat";
+        return Z_DATA_ERROR;
+      }
+      v = v==16 ? c[i-1] : 0;
+      do{
+        c[i++]=v;
+      }
+      while(--j!=0);
+    }
+
+    save(b, k, p);
+    if(inftree.inflate_trees_dynamic(nl, nd, c, hufts, z)!=Z_OK){
+      blens=null;
+      mode=BAD;
+      return Z_DATA_ERROR;
+    }
+    init_codes(z.avail_in);
+    mode=CODES;
+    return Z_OK;
+  }
+
+  // Sets up codes for the dynamic tables just built.
+  private void init_codes(int n){
+    if(!inftree.reused){
+      multi_ok=false;
+    }
+    // The size of a block is not known up front; guess it from the
+    // previous block, or from the input at hand for the first one.
+    int[] mt=null;
+    if((last_in<0 ? n : last_in) >= MULTI_MIN){
+      if(multi==null){
+	multi=new int[1<<InfTree.multi_bits];
+      }
+      if(!multi_ok){
+	InfTree.inflate_trees_multi(hufts, inftree.tl, inftree.bl, multi);
+	multi_ok=true;
+      }
+      mt=multi;
+    }
+    codes.init(inftree.bl, inftree.bd, hufts, inftree.tl,
+	       hufts, inftree.td, mt);
+  }
+
+  private void save(int b, int k, int p){
+    bitb=b; bitk=k;
+    z.avail_in-=p-z.next_in_index;
+    z.total_in+=p-z.next_in_index;
+    z.next_in_index=p;
+  }
+
   void free(){
     reset();
     window=null;
     hufts=null;
+    multi=null;
+    multi_ok=false;
     //ZFREE(z, s);
   }
 
   void set_dictionary(byte[] d, int start, int n){
+    if(n>end){
+      grow(n);
+    }
     System.arraycopy(d, start, window, 0, n);
     read = write = n;
   }
 
+  // Lowers the window size to what the zlib header asks for; called
+  // before any output is written.
+  void limit(int w){
+    if(w<wmax){
+      wmax=w;
+      if(end>w) end=w;
+    }
+  }
+
+  // The writer is at the end of the window: grows the window if it is
+  // still smaller than wmax, as its contents have not wrapped yet and
+  // can stay in place, or else wraps around.  Returns the new pointer.
+  int wrap(int q){
+    if(end<wmax){
+      grow(end+1);
+      return q;
+    }
+    return 0;
+  }
+
+  private void grow(int need){
+    int n=end==0 ? WINDOW_MIN : end;
+    while(n<need) n<<=1;
+    if(n>wmax) n=wmax;
+    if(window==null){
+      window=new byte[n];
+    }
+    else if(window.length<n){
+      window=java.util.Arrays.copyOf(window, n);
+    }
+    end=n;
+  }
+
   // Returns true if inflate is currently at the end of a block generated
   // by Z_SYNC_FLUSH or Z_FULL_FLUSH. 
   int sync_point(){
     return mode == LENS ? 1 : 0;
   }
 
+  // Accounts for the bytes written straight to next_out from beg up to
+  // stop, and keeps the last of them in the window as history.
+  void direct_written(int beg, int stop){
+    int len=stop-beg;
+    int q;
+
+    if(check && len>0){
+      z.adler.update(z.next_out, beg, len);
+    }
+    z.next_out_index=stop;
+    z.avail_out-=len;
+    z.total_out+=len;
+
+    // grow past what was written, so that the window only wraps once it
+    // is full size
+    if(end<wmax && write+len>=end){
+      grow(write+len+1);
+    }
+    if(len>=end){
+      System.arraycopy(z.next_out, stop-end, window, 0, end);
+      q=0;
+    }
+    else{
+      q=write==end?0:write;
+      int e=Math.min(len, end-q);
+      System.arraycopy(z.next_out, beg, window, q, e);
+      System.arraycopy(z.next_out, beg+e, window, 0, len-e);
+      q=len>e?len-e:q+e;
+    }
+    read=write=q;
+  }
+
   // copy as much as possible from the sliding window to the output area
   int inflate_flush(int r){
     int n;
@@ -573,12 +917,13 @@ final class InfBlocks{
     }
 
     // copy as far as end of window
-    System.arraycopy(window, q, z.next_out, p, n);
+    if(!discard)
+      System.arraycopy(window, q, z.next_out, p, n);
     p += n;
     q += n;
 
     // see if more to copy at beginning of window
-    if (q == end){
+    if (q == end && wrap(q) == 0){
       // wrap pointers
       q = 0;
       if (write == end)
@@ -599,7 +944,8 @@ final class InfBlocks{
       }
 
       // copy
-      System.arraycopy(window, q, z.next_out, p, n);
+      if(!discard)
+        System.arraycopy(window, q, z.next_out, p, n);
       p += n;
       q += n;
     }
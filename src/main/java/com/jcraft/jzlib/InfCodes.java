@@ -34,8 +34,16 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
 final class InfCodes{
 
+  // little-endian loads of eight input bytes into the bit buffer
+  static final private VarHandle LONG_LE =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
   static final private int[] inflate_mask = {
     0x00000000, 0x00000001, 0x00000003, 0x00000007, 0x0000000f,
     0x0000001f, 0x0000003f, 0x0000007f, 0x000000ff, 0x000001ff,
@@ -67,6 +75,10 @@ final class InfCodes{
   static final private int END=8;    // x: got eob and all data flushed
   static final private int BADCODE=9;// x: got error
 
+  // inflate_fast decodes straight into next_out if nothing is waiting in
+  // the window and at least this much output space is at hand.
+  static final private int DIRECT_MIN=4096;
+
   int mode;      // current inflate_codes mode
 
   // mode dependent information
@@ -88,6 +100,7 @@ final class InfCodes{
   int ltree_index;      // literal/length/eob tree
   int[] dtree;          // distance tree
   int dtree_index;      // distance tree
+  int[] mtree;          // multi-literal table, or null
 
   private final ZStream z;
   private final InfBlocks s;
@@ -98,7 +111,7 @@ final class InfCodes{
 
   void init(int bl, int bd,
 	   int[] tl, int tl_index,
-	   int[] td, int td_index){
+	   int[] td, int td_index, int[] mt){
     mode=START;
     lbits=(byte)bl;
     dbits=(byte)bd;
@@ -106,13 +119,14 @@ final class InfCodes{
     ltree_index=tl_index;
     dtree = td;
     dtree_index=td_index;
+    mtree=mt;
     tree=null;
   }
 
   int proc(int r){ 
     int j;              // temporary storage
-    int[] t;            // temporary pointer
-    int tindex;         // temporary pointer
+    int t;              // table entry
+    int tindex;         // index of table entry
     int e;              // extra bits or operation
     int b=0;            // bit buffer
     int k=0;            // bits in bit buffer
@@ -131,7 +145,7 @@ final class InfCodes{
       switch (mode){
 	// waiting for "i:"=input, "o:"=output, "x:"=nothing
       case START:         // x: set up for LEN
-	if (m >= 258 && n >= 10){
+	if (n >= 8 && (m >= 258 || q == s.read && z.avail_out >= DIRECT_MIN && !s.discard)){
 
 	  s.bitb=b;s.bitk=k;
 	  z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
@@ -139,6 +153,7 @@ final class InfCodes{
 	  r = inflate_fast(lbits, dbits, 
 			   ltree, ltree_index, 
 			   dtree, dtree_index,
+			   mtree, q == s.read && z.avail_out >= DIRECT_MIN && !s.discard,
 			   s, z);
 
 	  p=z.next_in_index;n=z.avail_in;b=s.bitb;k=s.bitk;
@@ -171,27 +186,28 @@ final class InfCodes{
 	  k+=8;
 	}
 
-	tindex=(tree_index+(b&inflate_mask[j]))*3;
+	tindex=tree_index+(b&inflate_mask[j]);
+	t=tree[tindex];
 
-	b>>>=(tree[tindex+1]);
-	k-=(tree[tindex+1]);
+	b>>>=InfTree.bits(t);
+	k-=InfTree.bits(t);
 
-	e=tree[tindex];
+	e=InfTree.op(t);
 
 	if(e == 0){               // literal
-	  lit = tree[tindex+2];
+	  lit = InfTree.value(t);
 	  mode = LIT;
 	  break;
 	}
 	if((e & 16)!=0 ){          // length
 	  get = e & 15;
-	  len = tree[tindex+2];
+	  len = InfTree.value(t);
 	  mode = LENEXT;
 	  break;
 	}
 	if ((e & 64) == 0){        // next table
 	  need = e;
-	  tree_index = tindex/3+tree[tindex+2];
+	  tree_index = tindex+InfTree.value(t);
 	  break;
 	}
 	if ((e & 32)!=0){               // end of block
@@ -248,21 +264,22 @@ final class InfCodes{
 	  k+=8;
 	}
 
-	tindex=(tree_index+(b & inflate_mask[j]))*3;
+	tindex=tree_index+(b & inflate_mask[j]);
+	t=tree[tindex];
 
-	b>>=tree[tindex+1];
-	k-=tree[tindex+1];
+	b>>=InfTree.bits(t);
+	k-=InfTree.bits(t);
 
-	e = (tree[tindex]);
+	e = InfTree.op(t);
 	if((e & 16)!=0){               // distance
 	  get = e & 15;
-	  dist = tree[tindex+2];
+	  dist = InfTree.value(t);
 	  mode = DISTEXT;
 	  break;
 	}
 	if ((e & 64) == 0){        // next table
 	  need = e;
-	  tree_index = tindex/3 + tree[tindex+2];
+	  tree_index = tindex + InfTree.value(t);
 	  break;
 	}
 	mode = BADCODE;        // invalid code
@@ -304,12 +321,12 @@ final class InfCodes{
 	while (len!=0){
 
 	  if(m==0){
-	    if(q==s.end&&s.read!=0){q=0;m=q<s.read?s.read-q-1:s.end-q;}
+	    if(q==s.end&&(s.read!=0||s.end<s.wmax)){q=s.wrap(q);m=q<s.read?s.read-q-1:s.end-q;}
 	    if(m==0){
 	      s.write=q; r=s.inflate_flush(r);
 	      q=s.write;m=q<s.read?s.read-q-1:s.end-q;
 
-	      if(q==s.end&&s.read!=0){q=0;m=q<s.read?s.read-q-1:s.end-q;}
+	      if(q==s.end&&(s.read!=0||s.end<s.wmax)){q=s.wrap(q);m=q<s.read?s.read-q-1:s.end-q;}
 
 	      if(m==0){
 		s.bitb=b;s.bitk=k;
@@ -330,12 +347,12 @@ final class InfCodes{
 	break;
       case LIT:           // o: got literal, waiting for output space
 	if(m==0){
-	  if(q==s.end&&s.read!=0){q=0;m=q<s.read?s.read-q-1:s.end-q;}
+	  if(q==s.end&&(s.read!=0||s.end<s.wmax)){q=s.wrap(q);m=q<s.read?s.read-q-1:s.end-q;}
 	  if(m==0){
 	    s.write=q; r=s.inflate_flush(r);
 	    q=s.write;m=q<s.read?s.read-q-1:s.end-q;
 
-	    if(q==s.end&&s.read!=0){q=0;m=q<s.read?s.read-q-1:s.end-q;}
+	    if(q==s.end&&(s.read!=0||s.end<s.wmax)){q=s.wrap(q);m=q<s.read?s.read-q-1:s.end-q;}
 	    if(m==0){
 	      s.bitb=b;s.bitk=k;
 	      z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
@@ -398,20 +415,41 @@ final class InfCodes{
     //  ZFREE(z, c);
   }
 
+  // Runs inflate_fast straight from init for InfBlocks.fast_blocks, if
+  // there is room for it.  Returns Z_OK if proc is to carry on.
+  int fast(){
+    int q=s.write;
+    boolean direct=q==s.read && z.avail_out>=DIRECT_MIN && !s.discard;
+    if(z.avail_in<8 || !direct && (q<s.read?s.read-q-1:s.end-q)<258){
+      return Z_OK;
+    }
+    int r=inflate_fast(lbits, dbits, ltree, ltree_index, dtree, dtree_index,
+		       mtree, direct, s, z);
+    if(r!=Z_OK){
+      mode = r==Z_STREAM_END ? WASH : BADCODE;
+    }
+    return r;
+  }
+
   // Called with number of bytes left to write in window at least 258
   // (the maximum string length) and number of input bytes available
-  // at least ten.  The ten bytes are six bytes for the longest length/
-  // distance pair plus four bytes for overloading the bit buffer.
+  // at least eight.  The bit buffer is a long which is refilled eight
+  // bytes at a time, so that it always holds at least 48 bits, enough
+  // for the longest length/distance pair, at the start of each code.
+  //
+  // If direct is set, the window holds no pending bytes and the output
+  // goes straight to next_out, which then serves as the newest part of
+  // the history; the window is brought up to date on return.
 
   int inflate_fast(int bl, int bd, 
 		   int[] tl, int tl_index,
 		   int[] td, int td_index,
+		   int[] mt, boolean direct,
 		   InfBlocks s, ZStream z){
-    int t;                // temporary pointer
-    int[] tp;             // temporary pointer
-    int tp_index;         // temporary pointer
+    int t;                // table entry
+    int ti;               // index of table entry
     int e;                // extra bits or operation
-    int b;                // bit buffer
+    long b;               // bit buffer
     int k;                // bits in bit buffer
     int p;                // input data pointer
     int n;                // bytes available there
@@ -419,192 +457,248 @@ final class InfCodes{
     int m;                // bytes to end of window or read pointer
     int ml;               // mask for literal/length tree
     int md;               // mask for distance tree
+    int mm;               // mask for multi-literal table
     int c;                // bytes to copy
     int d;                // distance back to copy from
     int r;                // copy source pointer
+    int beg;              // start of output written by this call
+    int hw;               // end of history in window, if direct
 
-    int tp_index_t_3;     // (tp_index+t)*3
+    byte[] in = z.next_in;
+    byte[] w = s.window;
+    byte[] o;             // output, the window or next_out
 
     // load input, output, bit values
-    p=z.next_in_index;n=z.avail_in;b=s.bitb;k=s.bitk;
-    q=s.write;m=q<s.read?s.read-q-1:s.end-q;
+    p=z.next_in_index;n=z.avail_in;b=s.bitb&0xffffffffL;k=s.bitk;
+    if(direct){
+      o=z.next_out;
+      beg=q=z.next_out_index;m=z.avail_out;
+      hw=s.write==0?s.end:s.write;
+    }
+    else{
+      o=w;
+      beg=0;
+      q=s.write;m=q<s.read?s.read-q-1:s.end-q;
+      hw=s.end;
+    }
 
     // initialize masks
     ml = inflate_mask[bl];
     md = inflate_mask[bd];
+    mm = mt != null ? (1<<InfTree.multi_bits)-1 : 0;
 
     // do until not enough input or output space for fast loop
-    do {                          // assume called with m >= 258 && n >= 10
-      // get literal/length code
-      while(k<(20)){              // max bits for literal/length code
-	n--;
-	b|=(z.next_in[p++]&0xff)<<k;k+=8;
+    loop:
+    do {                          // assume called with m >= 258 && n >= 8
+      if(k<48){
+        // The bits above k pick up the following input bytes, which
+        // the next refill will OR in again at the same position.
+        b|=(long)LONG_LE.get(in, p)<<k;
+        c=(63-k)>>>3;
+        p+=c; n-=c; k|=56;
       }
 
-      t= b&ml;
-      tp=tl; 
-      tp_index=tl_index;
-      tp_index_t_3=(tp_index+t)*3;
-      if ((e = tp[tp_index_t_3]) == 0){
-	b>>=(tp[tp_index_t_3+1]); k-=(tp[tp_index_t_3+1]);
-
-	s.window[q++] = (byte)tp[tp_index_t_3+2];
+      // get literal/length code; see InfTree for the entry layout, and
+      // for the multi-literal table that may hand out two literals
+      ti=tl_index+((int)b&ml);
+      if ((((t=mt!=null?mt[(int)b&mm]:tl[ti]))&0xff00) == 0){
+	b>>>=t&15; k-=t&15;
+	o[q++]=(byte)(t>>>16);
 	m--;
+	if((t&0x10)!=0){
+	  o[q++]=(byte)(t>>>24);
+	  m--;
+	}
 	continue;
       }
       do {
-
-	b>>=(tp[tp_index_t_3+1]); k-=(tp[tp_index_t_3+1]);
+	b>>>=t&0xff; k-=t&0xff;
+	e=(t>>>8)&0xff;
 
 	if((e&16)!=0){
 	  e &= 15;
-	  c = tp[tp_index_t_3+2] + ((int)b & inflate_mask[e]);
-
-	  b>>=e; k-=e;
+	  c = (t>>>16) + ((int)b & inflate_mask[e]);
+	  b>>>=e; k-=e;
 
 	  // decode distance base of block to copy
-	  while(k<(15)){           // max bits for distance code
-	    n--;
-	    b|=(z.next_in[p++]&0xff)<<k;k+=8;
-	  }
-
-	  t= b&md;
-	  tp=td;
-	  tp_index=td_index;
-          tp_index_t_3=(tp_index+t)*3;
-	  e = tp[tp_index_t_3];
-
-	  do {
-
-	    b>>=(tp[tp_index_t_3+1]); k-=(tp[tp_index_t_3+1]);
+	  ti=td_index+((int)b&md);
+	  t=td[ti];
+	  while(true){
+	    b>>>=t&0xff; k-=t&0xff;
+	    e=(t>>>8)&0xff;
 
 	    if((e&16)!=0){
 	      // get extra bits to add to distance base
 	      e &= 15;
-	      while(k<(e)){         // get extra bits (up to 13)
-		n--;
-		b|=(z.next_in[p++]&0xff)<<k;k+=8;
-	      }
-
-	      d = tp[tp_index_t_3+2] + (b&inflate_mask[e]);
-
-	      b>>=(e); k-=(e);
+	      d = (t>>>16) + ((int)b&inflate_mask[e]);
+	      b>>>=e; k-=e;
+	      break;
+	    }
+	    if((e&64)==0){
+	      ti+=(t>>>16)+((int)b&inflate_mask[e]);
+	      t=td[ti];
+	      continue;
+	    }
+	    z.msg = "invalid distance code";
+	    return fast_return(b, k, p, n, direct, beg, q, s, z, Z_DATA_ERROR);
+	  }
 
-	      // do the copy
-	      m -= c;
-	      if (q >= d){                // offset before dest
-		//  just copy
-		r=q-d;
-		if(q-r>0 && 2>(q-r)){           
-		  s.window[q++]=s.window[r++]; // minimum count is three,
-		  s.window[q++]=s.window[r++]; // so unroll loop a little
-		  c-=2;
-		}
-		else{
-		  System.arraycopy(s.window, r, s.window, q, 2);
-		  q+=2; r+=2; c-=2;
-		}
+	  // do the copy
+	  m -= c;
+	  r = q - d;
+	  if (r < beg || d > s.wmax){
+	    if (!direct){         // offset after destination
+	      do{
+		r+=s.end;         // force pointer in window
+	      }while(r<0);        // covers invalid distances
+	      e=s.end-r;
+	      if(c>e){            // if source crosses,
+		System.arraycopy(w, r, w, q, e);
+		q+=e; c-=e;       // copy rest from start of window
+		r = 0;
 	      }
-	      else{                  // else offset after destination
-                r=q-d;
-                do{
-                  r+=s.end;          // force pointer in window
-                }while(r<0);         // covers invalid distances
-		e=s.end-r;
-		if(c>e){             // if source crosses,
-		  c-=e;              // wrapped copy
-		  if(q-r>0 && e>(q-r)){           
-		    do{s.window[q++] = s.window[r++];}
-		    while(--e!=0);
-		  }
-		  else{
-		    System.arraycopy(s.window, r, s.window, q, e);
-		    q+=e; r+=e; e=0;
-		  }
-		  r = 0;                  // copy rest from start of window
+	    }
+	    else if (d > s.wmax){ // invalid distance
+	      q = copy_far(o, beg, q, c, d, w, hw, s.end);
+	      break;
+	    }
+	    else{                 // source starts in the window
+	      r += hw - beg;
+	      while(r < 0) r += s.end;
+	      if(r >= hw){        // up to the end of the window
+		e = s.end - r;
+		if(c <= e){
+		  System.arraycopy(w, r, o, q, c);
+		  q+=c;
+		  break;
 		}
-
+		System.arraycopy(w, r, o, q, e);
+		q+=e; c-=e;
+		r = 0;
 	      }
-
-	      // copy all or what's left
-	      if(q-r>0 && c>(q-r)){           
-		do{s.window[q++] = s.window[r++];}
-		while(--c!=0);
+	      e = hw - r;         // up to the end of the history
+	      if(c <= e){
+		System.arraycopy(w, r, o, q, c);
+		q+=c;
+		break;
 	      }
-	      else{
-		System.arraycopy(s.window, r, s.window, q, c);
-		q+=c; r+=c; c=0;
-	      }
-	      break;
-	    }
-	    else if((e&64)==0){
-	      t+=tp[tp_index_t_3+2];
-	      t+=(b&inflate_mask[e]);
-	      tp_index_t_3=(tp_index+t)*3;
-	      e=tp[tp_index_t_3];
-	    }
-	    else{
-	      z.msg = "invalid distance code";
-
-	      c=z.avail_in-n;c=(k>>3)<c?k>>3:c;n+=c;p-=c;k-=c<<3;
-
-	      s.bitb=b;s.bitk=k;
-	      z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
-	      s.write=q;
-
-	      return Z_DATA_ERROR;
+	      System.arraycopy(w, r, o, q, e);
+	      q+=e; c-=e;
+	      r = beg;            // copy rest from the output
 	    }
 	  }
-	  while(true);
+	  copy_match(o, r, q, c);
+	  q+=c;
 	  break;
 	}
 
 	if((e&64)==0){
-	  t+=tp[tp_index_t_3+2];
-	  t+=(b&inflate_mask[e]);
-	  tp_index_t_3=(tp_index+t)*3;
-	  if((e=tp[tp_index_t_3])==0){
-
-	    b>>=(tp[tp_index_t_3+1]); k-=(tp[tp_index_t_3+1]);
-
-	    s.window[q++]=(byte)tp[tp_index_t_3+2];
+	  ti+=(t>>>16)+((int)b&inflate_mask[e]);
+	  if(((t=tl[ti])&0xff00)==0){
+	    b>>>=t&0xff; k-=t&0xff;
+	    o[q++]=(byte)(t>>>16);
 	    m--;
 	    break;
 	  }
 	}
 	else if((e&32)!=0){
-
-	  c=z.avail_in-n;c=(k>>3)<c?k>>3:c;n+=c;p-=c;k-=c<<3;
- 
-	  s.bitb=b;s.bitk=k;
-	  z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
-	  s.write=q;
-
-	  return Z_STREAM_END;
+	  // end of block: carry on here with the blocks that follow, as
+	  // long as the input surely holds their headers
+	  while(s.last==0 && n>=InfBlocks.FAST_IN && !s.block_stop){
+	    c=z.avail_in-n;c=(k>>3)<c?k>>3:c;n+=c;p-=c;k-=c<<3;
+	    s.bitb=(int)(b&((1L<<k)-1));s.bitk=k;
+	    z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
+	    e=s.fast_header();
+	    p=z.next_in_index;n=z.avail_in;b=s.bitb&0xffffffffL;k=s.bitk;
+	    if(e!=Z_OK){
+	      return fast_return(b, k, p, n, direct, beg, q, s, z, e);
+	    }
+	    if(s.mode==InfBlocks.CODES){
+	      tl=ltree; tl_index=ltree_index;
+	      td=dtree; td_index=dtree_index;
+	      mt=mtree;
+	      ml = inflate_mask[lbits];
+	      md = inflate_mask[dbits];
+	      mm = mt != null ? (1<<InfTree.multi_bits)-1 : 0;
+	      continue loop;
+	    }
+	    if(s.mode==InfBlocks.STORED){
+	      c=s.left;
+	      if(c>m || c>n){
+		break;            // left to InfBlocks.proc
+	      }
+	      System.arraycopy(in, p, o, q, c);
+	      p+=c; n-=c;
+	      q+=c; m-=c;
+	      s.left=0;
+	      s.mode = s.last!=0 ? InfBlocks.DRY : InfBlocks.TYPE;
+	    }
+	  }
+	  return fast_return(b, k, p, n, direct, beg, q, s, z, Z_STREAM_END);
 	}
 	else{
 	  z.msg="invalid literal/length code";
-
-	  c=z.avail_in-n;c=(k>>3)<c?k>>3:c;n+=c;p-=c;k-=c<<3;
-
-	  s.bitb=b;s.bitk=k;
-	  z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
-	  s.write=q;
-
-	  return Z_DATA_ERROR;
+	  return fast_return(b, k, p, n, direct, beg, q, s, z, Z_DATA_ERROR);
 	}
       } 
       while(true);
     } 
-    while(m>=258 && n>= 10);
+    while(m>=258 && n>=8);
 
     // not enough input or output--restore pointers and return
-    c=z.avail_in-n;c=(k>>3)<c?k>>3:c;n+=c;p-=c;k-=c<<3;
+    return fast_return(b, k, p, n, direct, beg, q, s, z, Z_OK);
+  }
 
-    s.bitb=b;s.bitk=k;
+  // Gives back the whole bytes left in the bit buffer, as far as they
+  // were read by inflate_fast, and stores the state.
+  private static int fast_return(long b, int k, int p, int n,
+                                 boolean direct, int beg, int q,
+                                 InfBlocks s, ZStream z, int r){
+    int c=z.avail_in-n;c=(k>>3)<c?k>>3:c;n+=c;p-=c;k-=c<<3;
+
+    s.bitb=(int)(b&((1L<<k)-1));s.bitk=k;
     z.avail_in=n;z.total_in+=p-z.next_in_index;z.next_in_index=p;
-    s.write=q;
+    if(direct){
+      s.direct_written(beg, q);
+    }
+    else{
+      s.write=q;
+    }
+    return r;
+  }
+
+  // Copies a match that reaches back further than the window size when
+  // decoding into next_out, byte by byte, just as the window would have
+  // served it: with the distance taken modulo the window size.
+  private static int copy_far(byte[] o, int beg, int q, int c, int d,
+                              byte[] w, int hw, int end){
+    for(; c>0; c--, q++){
+      int back=q-beg;                         // bytes written to o
+      int x=Math.floorMod(hw+back-d, end);    // slot in the window
+      int age=Math.floorMod(hw+back-x-1, end)+1;
+      o[q] = age<=back ? o[q-age] : w[x];
+    }
+    return q;
+  }
 
-    return Z_OK;
+  // Copies c bytes from w[r] to w[q], the way LZ77 defines it: if the
+  // source overlaps the destination, the bytes just written are repeated.
+  static void copy_match(byte[] w, int r, int q, int c){
+    int d = q - r;
+    if(d >= c || d <= 0){
+      System.arraycopy(w, r, w, q, c);
+    }
+    else if(d == 1){
+      java.util.Arrays.fill(w, q, q+c, w[r]);
+    }
+    else{
+      // w[r..q) is the pattern; every copy doubles it
+      int end = q + c;
+      while(q < end){
+        int len = Math.min(end - q, q - r);
+        System.arraycopy(w, r, w, q, len);
+        q += len;
+      }
+    }
   }
 }
@@ -36,8 +36,6 @@ package com.jcraft.jzlib;
 
 final class InfTree{
 
-  static final private int MANY=1440;
-
   static final private int Z_OK=0;
   static final private int Z_STREAM_END=1;
   static final private int Z_NEED_DICT=2;
@@ -51,7 +49,36 @@ final class InfTree{
   static final int fixed_bl = 9;
   static final int fixed_bd = 5;
 
-  static final int[] fixed_tl = {
+  // Index bits of a multi-literal table.  It is a literal/length table
+  // whose literal entries may carry a second literal in bits 24..31; bit 4
+  // is then set and the bits field counts the bits of both codes.
+  static final int multi_bits = 11;
+
+  // Decoding tables hold one int per entry: the value (literal, length or
+  // distance base, or the offset to a subtable) in the upper 16 bits, the
+  // operation in bits 8..15 and the number of bits to drop in bits 0..7.
+  // The operation keeps zlib-1.1.3's encoding: 0 is a literal, 16+extra a
+  // length or distance base, 1..15 links a subtable of that many bits,
+  // 32+64 is end-of-block and 128+64 an invalid code.
+
+  static int entry(int op, int bits, int value){
+    return value<<16 | (op&0xff)<<8 | bits;
+  }
+
+  static int op(int entry){ return (entry>>>8)&0xff; }
+  static int bits(int entry){ return entry&0xff; }
+  static int value(int entry){ return entry>>>16; }
+
+  // Packs a table given as (op, bits, value) triples.
+  static int[] pack(int[] triples){
+    int[] t=new int[triples.length/3];
+    for(int i=0; i<t.length; i++){
+      t[i]=entry(triples[i*3], triples[i*3+1], triples[i*3+2]);
+    }
+    return t;
+  }
+
+  static final int[] fixed_tl = pack(new int[]{
     96,7,256, 0,8,80, 0,8,16, 84,8,115,
     82,7,31, 0,8,112, 0,8,48, 0,9,192,
     80,7,10, 0,8,96, 0,8,32, 0,9,160,
@@ -181,8 +208,8 @@ final class InfTree{
     84,7,99, 0,8,127, 0,8,63, 0,9,223,
     82,7,27, 0,8,111, 0,8,47, 0,9,191,
     0,8,15, 0,8,143, 0,8,79, 0,9,255
-  };
-  static final int[] fixed_td = {
+  });
+  static final int[] fixed_td = pack(new int[]{
     80,5,1, 87,5,257, 83,5,17, 91,5,4097,
     81,5,5, 89,5,1025, 85,5,65, 93,5,16385,
     80,5,3, 88,5,513, 84,5,33, 92,5,8193,
@@ -191,7 +218,7 @@ final class InfTree{
     81,5,7, 89,5,1537, 85,5,97, 93,5,24577,
     80,5,4, 88,5,769, 84,5,49, 92,5,12289,
     82,5,13, 90,5,3073, 86,5,193, 192,5,24577
-  };
+  });
 
   // Tables for deflate from PKZIP's appnote.txt.
   static final int[] cplens = { // Copy lengths for literal codes 257..285
@@ -216,303 +243,269 @@ final class InfTree{
         7, 7, 8, 8, 9, 9, 10, 10, 11, 11,
         12, 12, 13, 13};
 
-  // If BMAX needs to be larger than 16, then h and x[] should be uLong.
   static final int BMAX=15;         // maximum bit length of any code
 
-  int[] hn = null;  // hufts used in space
-  int[] v = null;   // work area for huft_build 
-  int[] c = null;   // bit length count table
-  int[] r = null;   // table entry for structure assignment
-  int[] u = null;   // table stack
-  int[] x = null;   // bit offsets, then code stack
-
-  private int huft_build(int[] b, // code lengths in bits (all assumed <= BMAX)
-                         int bindex, 
-                         int n,   // number of codes (assumed <= 288)
-                         int s,   // number of simple-valued codes (0..s-1)
-                         int[] d, // list of base values for non-simple codes
-                         int[] e, // list of extra bits for non-simple codes
-                         int[] t, // result: starting table
-                         int[] m, // maximum lookup bits, returns actual
-                         int[] hp,// space for trees
-                         int[] hn,// hufts used in space
-                         int[] v  // working area: values in order of bit length
-                         ){
-    // Given a list of code lengths and a maximum table size, make a set of
-    // tables to decode that set of codes.  Return Z_OK on success, Z_BUF_ERROR
-    // if the given code set is incomplete (the tables are still built in this
-    // case), Z_DATA_ERROR if the input is invalid (an over-subscribed set of
-    // lengths), or Z_MEM_ERROR if not enough memory.
-
-    int a;                       // counter for codes of length k
-    int f;                       // i repeats in table every f entries
-    int g;                       // maximum code length
-    int h;                       // table level
-    int i;                       // counter, current code
-    int j;                       // counter
-    int k;                       // number of bits in current code
-    int l;                       // bits per table (returned in m)
-    int mask;                    // (1 << w) - 1, to avoid cc -O bug on HP
-    int p;                       // pointer into c[], b[], or v[]
-    int q;                       // points to current table
-    int w;                       // bits before this table == (l * h)
-    int xp;                      // pointer into x
-    int y;                       // number of dummy codes added
-    int z;                       // number of entries in current table
-
-    // Generate counts for each bit length
-
-    p = 0; i = n;
-    do {
-      c[b[bindex+p]]++; p++; i--;   // assume all entries <= BMAX
-    }while(i!=0);
-
-    if(c[0] == n){                // null input--all zero length codes
-      t[0] = -1;
-      m[0] = 0;
-      return Z_OK;
+  // Maximum table space for a literal/length table with 9 root bits and a
+  // distance table with 6 root bits, as computed by zlib's enough.c.
+  static final int ENOUGH=852+592;
+
+  // results of the last inflate_trees_bits() or inflate_trees_dynamic()
+  int bb;           // bit length tree root bits
+  int bl;           // literal/length tree root bits
+  int bd;           // distance tree root bits
+  int tl;           // index of the literal/length tree in hp
+  int td;           // index of the distance tree in hp, or -1 if none
+  boolean reused;   // tables are those of the previous call
+
+  // work areas for build()
+  private final int[] count=new int[BMAX+1]; // codes of each length
+  private final int[] offs=new int[BMAX+1];  // offsets into work
+  private final int[] work=new int[288];     // symbols sorted by length
+  private int used;                          // entries used in hp
+
+  // code lengths behind the tables currently held in hp
+  private final int[] last_lens=new int[288+32];
+  private int last_nl=-1;
+  private int last_nd;
+  private int[] last_hp;
+  private final int[] last_blens=new int[19];
+  private int[] last_bp;
+
+  // Builds the decoding tables for the n code lengths at b[bindex] into
+  // hp starting at used, following zlib 1.2's inflate_table(): a root
+  // table of up to root bits with sub-tables for the longer codes.  Codes
+  // 0..s-1 are literals (256 being end-of-block), the others take their
+  // base and extra bits from d[] and e[].  Returns the root bits, or -1
+  // if there are no codes, with the root table at hp[start]; Z_DATA_ERROR
+  // for an over-subscribed set and Z_BUF_ERROR for an incomplete one of
+  // more than one bit are returned as -2 and -3.
+  private int build(int[] b, int bindex, int n, int s, int[] d, int[] e,
+                    int[] hp, int root){
+    int len;                  // a code's length in bits
+    int sym;                  // index of code symbols
+    int min, max;             // minimum and maximum code lengths
+    int curr;                 // number of index bits for current table
+    int drop;                 // code bits to drop for sub-table
+    int left;                 // number of prefix codes available
+    int huff;                 // Huffman code
+    int incr;                 // for incrementing code, index
+    int fill;                 // index for replicating entries
+    int low;                  // low bits for current root entry
+    int mask;                 // mask for low root bits
+    int next;                 // next available space in table
+    int here;                 // table entry for duplication
+    int start=used;
+
+    for(len=0; len<=BMAX; len++) count[len]=0;
+    for(sym=0; sym<n; sym++) count[b[bindex+sym]]++;
+
+    for(max=BMAX; max>=1; max--){
+      if(count[max]!=0) break;
     }
-
-    // Find minimum and maximum length, bound *m by those
-    l = m[0];
-    for (j = 1; j <= BMAX; j++)
-      if(c[j]!=0) break;
-    k = j;                        // minimum code length
-    if(l < j){
-      l = j;
+    if(max==0) return -1;     // no codes
+    if(root>max) root=max;
+    for(min=1; min<max; min++){
+      if(count[min]!=0) break;
     }
-    for (i = BMAX; i!=0; i--){
-      if(c[i]!=0) break;
+    if(root<min) root=min;
+
+    // check for an over-subscribed or incomplete set of lengths
+    left=1;
+    for(len=1; len<=BMAX; len++){
+      left<<=1;
+      left-=count[len];
+      if(left<0) return -2;
     }
-    g = i;                        // maximum code length
-    if(l > i){
-      l = i;
+    if(left>0 && max!=1) return -3;
+
+    // sort symbols by length, by symbol order within each length
+    offs[1]=0;
+    for(len=1; len<BMAX; len++) offs[len+1]=offs[len]+count[len];
+    for(sym=0; sym<n; sym++){
+      if(b[bindex+sym]!=0) work[offs[b[bindex+sym]]++]=sym;
     }
-    m[0] = l;
 
-    // Adjust last length count to fill out codes, if needed
-    for (y = 1 << j; j < i; j++, y <<= 1){
-      if ((y -= c[j]) < 0){
-        return Z_DATA_ERROR;
+    huff=0;
+    sym=0;
+    len=min;
+    next=start;
+    curr=root;
+    drop=0;
+    low=-1;
+    used+=1<<root;
+    mask=(1<<root)-1;
+
+    // process all codes and make table entries
+    while(true){
+      int v=work[sym];
+      if(v<s){
+        here=entry(v<256 ? 0 : 32+64, len-drop, v);
+      }
+      else{
+        here=entry(e[v-s]+16+64, len-drop, d[v-s]);
       }
-    }
-    if ((y -= c[i]) < 0){
-      return Z_DATA_ERROR;
-    }
-    c[i] += y;
-
-    // Generate starting offsets into the value table for each length
-    x[1] = j = 0;
-    p = 1;  xp = 2;
-    while (--i!=0) {                 // note that i == g from above
-      x[xp] = (j += c[p]);
-      xp++;
-      p++;
-    }
 
-    // Make a table of values in order of bit lengths
-    i = 0; p = 0;
-    do {
-      if ((j = b[bindex+p]) != 0){
-        v[x[j]++] = i;
+      // replicate for those indices with low len bits equal to huff
+      incr=1<<(len-drop);
+      fill=1<<curr;
+      int size=fill;
+      do{
+        fill-=incr;
+        hp[next+(huff>>>drop)+fill]=here;
+      }
+      while(fill!=0);
+
+      // backwards increment the len-bit code huff
+      incr=1<<(len-1);
+      while((huff&incr)!=0) incr>>>=1;
+      if(incr!=0){
+        huff&=incr-1;
+        huff+=incr;
+      }
+      else{
+        huff=0;
       }
-      p++;
-    }
-    while (++i < n);
-    n = x[g];                     // set n to length of v
-
-    // Generate the Huffman codes and for each, make the table entries
-    x[0] = i = 0;                 // first Huffman code is zero
-    p = 0;                        // grab values in bit order
-    h = -1;                       // no tables yet--level -1
-    w = -l;                       // bits decoded == (l * h)
-    u[0] = 0;                     // just to keep compilers happy
-    q = 0;                        // ditto
-    z = 0;                        // ditto
-
-    // go through the bit lengths (k already is bits in shortest code)
-    for (; k <= g; k++){
-      a = c[k];
-      while (a--!=0){
-	// here i is the Huffman code of length k bits for value *p
-	// make tables up to required level
-        while (k > w + l){
-          h++;
-          w += l;                 // previous table always l bits
-	  // compute minimum size table less than or equal to l bits
-          z = g - w;
-          z = (z > l) ? l : z;        // table size upper limit
-          if((f=1<<(j=k-w))>a+1){     // try a k-w bit table
-                                      // too few codes for k-w bit table
-            f -= a + 1;               // deduct codes from patterns left
-            xp = k;
-            if(j < z){
-              while (++j < z){        // try smaller tables up to z bits
-                if((f <<= 1) <= c[++xp])
-                  break;              // enough codes to use up j bits
-                f -= c[xp];           // else deduct codes from patterns
-              }
-	    }
-          }
-          z = 1 << j;                 // table entries for j-bit table
-
-	  // allocate new table
-          if (hn[0] + z > MANY){       // (note: doesn't matter for fixed)
-            return Z_DATA_ERROR;       // overflow of MANY
-          }
-          u[h] = q = /*hp+*/ hn[0];   // DEBUG
-          hn[0] += z;
- 
-	  // connect to last table, if there is one
-	  if(h!=0){
-            x[h]=i;           // save pattern for backing up
-            r[0]=(byte)j;     // bits in this table
-            r[1]=(byte)l;     // bits to dump before this table
-            j=i>>>(w - l);
-            r[2] = (int)(q - u[h-1] - j);               // offset to this table
-            System.arraycopy(r, 0, hp, (u[h-1]+j)*3, 3); // connect to last table
-          }
-          else{
-            t[0] = q;               // first table is returned result
-	  }
-        }
 
-	// set up table entry in r
-        r[1] = (byte)(k - w);
-        if (p >= n){
-          r[0] = 128 + 64;      // out of values--invalid code
-	}
-        else if (v[p] < s){
-          r[0] = (byte)(v[p] < 256 ? 0 : 32 + 64);  // 256 is end-of-block
-          r[2] = v[p++];          // simple code is just the value
-        }
-        else{
-          r[0]=(byte)(e[v[p]-s]+16+64); // non-simple--look up in lists
-          r[2]=d[v[p++] - s];
-        }
+      // go to next symbol, update count, len
+      sym++;
+      if(--count[len]==0){
+        if(len==max) break;
+        len=b[bindex+work[sym]];
+      }
 
-        // fill code-like entries with r
-        f=1<<(k-w);
-        for (j=i>>>w;j<z;j+=f){
-          System.arraycopy(r, 0, hp, (q+j)*3, 3);
-	}
-
-	// backwards increment the k-bit code i
-        for (j = 1 << (k - 1); (i & j)!=0; j >>>= 1){
-          i ^= j;
-	}
-        i ^= j;
-
-	// backup over finished tables
-        mask = (1 << w) - 1;      // needed on HP, cc -O bug
-        while ((i & mask) != x[h]){
-          h--;                    // don't need to update q
-          w -= l;
-          mask = (1 << w) - 1;
+      // create new sub-table if needed
+      if(len>root && (huff&mask)!=low){
+        if(drop==0) drop=root;
+        next+=size;
+
+        // determine length of next table
+        curr=len-drop;
+        left=1<<curr;
+        while(curr+drop<max){
+          left-=count[curr+drop];
+          if(left<=0) break;
+          curr++;
+          left<<=1;
         }
+        used+=1<<curr;
+
+        // point the root entry at the sub-table
+        low=huff&mask;
+        hp[start+low]=entry(curr, root, next-(start+low));
       }
     }
-    // Return Z_BUF_ERROR if we were given an incomplete table
-    return y != 0 && g != 1 ? Z_BUF_ERROR : Z_OK;
+
+    // An incomplete one-bit code leaves one entry, which is invalid.  As
+    // in zlib-1.1.3 it keeps the value of the other one, which is what
+    // the bit length decoder, not looking at the operation, gets.
+    if(huff!=0){
+      hp[next+huff]=entry(128+64, len-drop, value(here));
+    }
+    return root;
   }
 
   int inflate_trees_bits(int[] c,  // 19 code lengths
-                         int[] bb, // bits tree desired/actual depth
-                         int[] tb, // bits tree result
                          int[] hp, // space for trees
                          ZStream z // for messages
                          ){
-    int result;
-    initWorkArea(19);
-    hn[0]=0;
-    result = huft_build(c, 0, 19, 19, null, null, tb, bb, hp, hn, v);
+    reused=false;
+    if(hp==last_bp && java.util.Arrays.equals(c, 0, 19, last_blens, 0, 19)){
+      reused=true;
+      return Z_OK;
+    }
+    last_bp=null;
 
-    if(result == Z_DATA_ERROR){
+    used=0;
+    int result=build(c, 0, 19, 19, null, null, hp, 7);
+    if(result == -2){
       z.msg = "oversubscribed dynamic bit lengths tree";
+      return Z_DATA_ERROR;
     }
-    else if(result == Z_BUF_ERROR || bb[0] == 0){
+    else if(result < 0){
       z.msg = "incomplete dynamic bit lengths tree";
-      result = Z_DATA_ERROR;
+      return Z_DATA_ERROR;
     }
-    return result;
+    bb=result;
+    System.arraycopy(c, 0, last_blens, 0, 19);
+    last_bp=hp;
+    return Z_OK;
   }
 
   int inflate_trees_dynamic(int nl,   // number of literal/length codes
                             int nd,   // number of distance codes
                             int[] c,  // that many (total) code lengths
-                            int[] bl, // literal desired/actual bit depth
-                            int[] bd, // distance desired/actual bit depth 
-                            int[] tl, // literal/length tree result
-                            int[] td, // distance tree result
                             int[] hp, // space for trees
                             ZStream z // for messages
                             ){
     int result;
 
+    // blocks sent with the same code lengths share their tables
+    reused=false;
+    if(hp==last_hp && nl==last_nl && nd==last_nd &&
+       java.util.Arrays.equals(c, 0, nl+nd, last_lens, 0, nl+nd)){
+      reused=true;
+      return Z_OK;
+    }
+    last_hp=null;
+
     // build literal/length tree
-    initWorkArea(288);
-    hn[0]=0;
-    result = huft_build(c, 0, nl, 257, cplens, cplext, tl, bl, hp, hn, v);
-    if (result != Z_OK || bl[0] == 0){
-      if(result == Z_DATA_ERROR){
+    used=0;
+    tl=used;
+    result = build(c, 0, nl, 257, cplens, cplext, hp, 9);
+    if (result < 0){
+      if(result == -2){
         z.msg = "oversubscribed literal/length tree";
       }
-      else if (result != Z_MEM_ERROR){
+      else{
         z.msg = "incomplete literal/length tree";
-        result = Z_DATA_ERROR;
       }
-      return result;
+      return Z_DATA_ERROR;
     }
+    bl=result;
 
     // build distance tree
-    initWorkArea(288);
-    result = huft_build(c, nl, nd, 0, cpdist, cpdext, td, bd, hp, hn, v);
-
-    if (result != Z_OK || (bd[0] == 0 && nl > 257)){
-      if (result == Z_DATA_ERROR){
-        z.msg = "oversubscribed distance tree";
-      }
-      else if (result == Z_BUF_ERROR) {
-        z.msg = "incomplete distance tree";
-        result = Z_DATA_ERROR;
-      }
-      else if (result != Z_MEM_ERROR){
+    td=used;
+    result = build(c, nl, nd, 0, cpdist, cpdext, hp, 6);
+    if (result == -2){
+      z.msg = "oversubscribed distance tree";
+      return Z_DATA_ERROR;
+    }
+    else if (result == -3){
+      z.msg = "incomplete distance tree";
+      return Z_DATA_ERROR;
+    }
+    else if (result == -1){
+      if(nl > 257){
         z.msg = "empty distance tree with lengths";
-        result = Z_DATA_ERROR;
+        return Z_DATA_ERROR;
       }
-      return result;
+      td=-1;
+      result=0;
     }
+    bd=result;
 
+    System.arraycopy(c, 0, last_lens, 0, nl+nd);
+    last_nl=nl;
+    last_nd=nd;
+    last_hp=hp;
     return Z_OK;
   }
 
-  static int inflate_trees_fixed(int[] bl,  //literal desired/actual bit depth
-                                 int[] bd,  //distance desired/actual bit depth
-                                 int[][] tl,//literal/length tree result
-                                 int[][] td,//distance tree result 
-                                 ZStream z  //for memory allocation
-				 ){
-    bl[0]=fixed_bl;
-    bd[0]=fixed_bd;
-    tl[0]=fixed_tl;
-    td[0]=fixed_td;
-    return Z_OK;
-  }
-
-  private void initWorkArea(int vsize){
-    if(hn==null){
-      hn=new int[1];
-      v=new int[vsize];
-      c=new int[BMAX+1];
-      r=new int[3];
-      u=new int[BMAX];
-      x=new int[BMAX+1];
+  // Builds a multi-literal table from a literal/length table of at most
+  // multi_bits bits per lookup.  Other entries are copied as they are, so
+  // a subtable link is still relative to its place in tl.
+  static void inflate_trees_multi(int[] tl, int tl_index, int bl, int[] mt){
+    int ml=(1<<bl)-1;
+    for(int i=0; i<mt.length; i++){
+      int e=tl[tl_index+(i&ml)];
+      if(op(e)==0){
+        int used=bits(e);
+        int e2=tl[tl_index+((i>>>used)&ml)];
+        if(op(e2)==0 && bits(e2)<=multi_bits-used){
+          e=value(e2)<<24 | value(e)<<16 | 0x10 | (used+bits(e2));
+        }
+      }
+      mt[i]=e;
     }
-    if(v.length<vsize){ v=new int[vsize]; }
-    for(int i=0; i<vsize; i++){v[i]=0;}
-    for(int i=0; i<BMAX+1; i++){c[i]=0;}
-    for(int i=0; i<3; i++){r[i]=0;}
-    System.arraycopy(c, 0, u, 0, BMAX);
-    System.arraycopy(c, 0, x, 0, BMAX+1);
   }
 }
@@ -46,6 +46,7 @@ final class Inflate{
   static final int Z_SYNC_FLUSH=2;
   static final int Z_FULL_FLUSH=3;
   static final int Z_FINISH=4;
+  static final int Z_BLOCK=5;
 
   static final private int Z_DEFLATED=8;
 
@@ -106,6 +107,8 @@ final class Inflate{
                       // 2: gzip header
                       // 4: auto detection
 
+  int init_wrap;        // wrap as requested by inflateInit
+
   int wbits;            // log2(window size)  (8..15, defaults to 15)
 
   InfBlocks blocks;     // current inflate_blocks state
@@ -130,6 +133,23 @@ final class Inflate{
     return Z_OK;
   }
 
+  // Same as inflateReset, but also forgets everything learned from the
+  // previous stream (detected wrapper, header, check value), so that the
+  // state and its window can be used for a brand-new stream.
+  int inflateReset2(){
+    if(z == null || blocks == null || blocks.hufts == null)
+      return Z_STREAM_ERROR;
+    wrap = init_wrap;
+    was = -1;
+    need = 0;
+    marker = 0;
+    flags = 0;
+    tmp_string = null;
+    gheader = null;
+    z.adler.reset();
+    return inflateReset();
+  }
+
   int inflateEnd(){
     if(blocks != null){
       blocks.free();
@@ -166,6 +186,8 @@ final class Inflate{
         w &= 15;
     }
 
+    init_wrap = wrap;
+
     if(w<8 ||w>15){
       inflateEnd();
       return Z_STREAM_ERROR;
@@ -198,6 +220,8 @@ final class Inflate{
       return Z_STREAM_ERROR;
     }
 
+    int entry = this.mode;
+    this.blocks.block_stop = f == Z_BLOCK;
     f = f == Z_FINISH ? Z_BUF_ERROR : Z_OK;
     r = Z_BUF_ERROR;
     while (true){
@@ -281,6 +305,7 @@ final class Inflate{
 	  */
           break;
         }
+        this.blocks.limit(1<<((this.method>>4)+8));
 
         z.adler=new Adler32();
 
@@ -325,6 +350,9 @@ final class Inflate{
         this.marker = 0;       // can try inflateSync
         return Z_STREAM_ERROR;
       case BLOCKS:
+        if(this.blocks.block_stop && entry != BLOCKS && wrap != 0){
+          return r;            // Z_BLOCK: stop after the header
+        }
         r = this.blocks.proc(r);
         if(r == Z_DATA_ERROR){
           this.mode = BAD;
@@ -583,8 +611,8 @@ final class Inflate{
 
     z.adler.reset();
 
-    if(length >= (1<<this.wbits)){
-      length = (1<<this.wbits)-1;
+    if(length > this.blocks.wmax){
+      length = this.blocks.wmax;
       index=dictLength - length;
     }
     this.blocks.set_dictionary(dictionary, index, length);
@@ -728,6 +756,33 @@ final class Inflate{
     return gheader;
   }
 
+  int inflatePrime(int bits, int value){
+    if(z == null || blocks == null) return Z_STREAM_ERROR;
+    if(bits < 0){
+      blocks.bitb = 0;
+      blocks.bitk = 0;
+      return Z_OK;
+    }
+    if(bits > 16 || blocks.bitk + bits > 32) return Z_STREAM_ERROR;
+    value &= (1 << bits) - 1;
+    blocks.bitb |= value << blocks.bitk;
+    blocks.bitk += bits;
+    return Z_OK;
+  }
+
+  // zlib's data_type after inflate(): the number of unused bits in the
+  // last input byte, plus 64 if the last block has been started, plus
+  // 128 if all the output has gone out and the next block comes next.
+  int dataType(){
+    int t = blocks.bitk;
+    if(blocks.last != 0)
+      t += 64;
+    if(mode == BLOCKS && blocks.mode == InfBlocks.TYPE &&
+       blocks.read == blocks.write)
+      t += 128;
+    return t;
+  }
+
   boolean inParsingHeader(){
     switch(mode){
       case HEAD:
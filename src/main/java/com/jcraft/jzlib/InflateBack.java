@@ -0,0 +1,745 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+/*
+ * This program is based on zlib-1.1.3, so all credit should go authors
+ * Jean-loup Gailly(jloup@gzip.org) and Mark Adler(madler@alumni.caltech.edu)
+ * and contributors of zlib.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decompresses a whole stream in one call, like zlib's inflateBack().
+ * Input is pulled from an {@link InputSupplier} and output is decoded
+ * straight into the window, which is handed to an {@link OutputConsumer}
+ * each time it fills up and once more at the end of the stream.
+ *
+ * <p>Raw deflate, zlib and gzip streams are accepted.  Preset
+ * dictionaries are not supported; a zlib stream that asks for one
+ * makes {@link #inflate} return {@link JZlib#Z_NEED_DICT}.
+ */
+public final class InflateBack {
+
+  /**
+   * Supplies compressed input.
+   */
+  public interface InputSupplier {
+    /**
+     * Returns a buffer holding more input between its position and limit,
+     * or null (or an empty buffer) at the end of the input.  The buffer's
+     * position is advanced past whatever is consumed; when the stream ends,
+     * it is left at the first byte after the stream.
+     */
+    ByteBuffer get() throws IOException;
+  }
+
+  /**
+   * Receives decompressed output.
+   */
+  public interface OutputConsumer {
+    /**
+     * Consumes the bytes between the position and limit of a read-only
+     * view of the window.  The contents are only valid until this method
+     * returns.
+     */
+    void accept(ByteBuffer buf) throws IOException;
+  }
+
+  static final private int MAX_WBITS=15;
+  static final private int Z_DEFLATED=8;
+
+  static final private int Z_OK=0;
+  static final private int Z_STREAM_END=1;
+  static final private int Z_NEED_DICT=2;
+  static final private int Z_DATA_ERROR=-3;
+  static final private int Z_BUF_ERROR=-5;
+
+  static final private VarHandle LONG_LE =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  // order of the bit length code lengths
+  static final private int[] border = {
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+  };
+
+  // thrown when the input supplier runs dry in the middle of the stream
+  @SuppressWarnings("serial")
+  static final private class EndOfInput extends Exception {
+    EndOfInput(){ super(null, null, false, false); }
+  }
+  static final private EndOfInput END_OF_INPUT = new EndOfInput();
+
+  private final JZlib.WrapperType wrapperType;
+  private final int wbits;
+  private final byte[] window;
+  private final int wsize;
+  private final ByteBuffer view;
+  private int wnext;            // next output position in the window
+  private boolean wfull;        // the window has been filled at least once
+
+  private InputSupplier supplier;
+  private OutputConsumer consumer;
+  private ByteBuffer src;       // the buffer input is currently taken from
+  private byte[] in;
+  private int next, end;        // unread input is in[next..end)
+  private int start;            // where in[] starts within src
+  private boolean copied;       // in[] is a copy of src's contents
+  private byte[] scratch;
+
+  private long hold;            // bit buffer
+  private int bits;             // number of valid bits in hold
+
+  private Checksum check;
+  private long total_in, total_out;
+  private String msg;
+
+  private final InfTree tree = new InfTree();
+  private final int[] hufts = new int[InfTree.ENOUGH];
+  private final int[] btree = new int[1<<7];
+  private final byte[] h = new byte[10];   // gzip header bytes
+  private final int[] lens = new int[320];
+  private final ZStream z = new ZStream();   // receives InfTree's messages
+
+  public InflateBack(JZlib.WrapperType wrapperType) throws GZIPException {
+    this(MAX_WBITS, wrapperType);
+  }
+
+  public InflateBack(int w, JZlib.WrapperType wrapperType) throws GZIPException {
+    this(new byte[w >= 8 && w <= MAX_WBITS ? 1<<w : 0], wrapperType);
+  }
+
+  /**
+   * Decodes into the given window, whose length must be a power of two
+   * between 256 and 32768.
+   */
+  public InflateBack(byte[] window, JZlib.WrapperType wrapperType)
+    throws GZIPException {
+    int w = Integer.numberOfTrailingZeros(window.length);
+    if(w < 8 || w > MAX_WBITS || window.length != 1<<w)
+      throw new GZIPException("invalid window size");
+    this.wrapperType = wrapperType;
+    this.wbits = w;
+    this.window = window;
+    this.wsize = window.length;
+    this.view = ByteBuffer.wrap(window).asReadOnlyBuffer();
+  }
+
+  /**
+   * Decompresses one stream.  Returns Z_STREAM_END on success,
+   * Z_DATA_ERROR or Z_NEED_DICT if the stream can't be decoded, and
+   * Z_BUF_ERROR if the input ends before the stream does.  Everything
+   * decoded before an error is still passed to the consumer.
+   */
+  public int inflate(InputSupplier in, OutputConsumer out) throws IOException {
+    supplier = in;
+    consumer = out;
+    src = null;
+    this.in = null;
+    next = end = start = 0;
+    hold = 0; bits = 0;
+    wnext = 0; wfull = false;
+    check = null;
+    total_in = total_out = 0;
+    msg = null;
+
+    int r;
+    try{
+      r = decode();
+    }
+    catch(EndOfInput e){
+      msg = "unexpected end of stream";
+      r = Z_BUF_ERROR;
+    }
+    finally{
+      release();
+      supplier = null;
+      consumer = null;
+    }
+    return r;
+  }
+
+  public String getMessage(){
+    return msg;
+  }
+
+  public long getTotalIn(){
+    return total_in;
+  }
+
+  public long getTotalOut(){
+    return total_out;
+  }
+
+  private int decode() throws IOException, EndOfInput {
+    int r = header();
+    if(r != Z_OK){
+      return r;
+    }
+    int last;
+    do{
+      need(3);
+      last = (int)hold & 1;
+      int type = ((int)hold >>> 1) & 3;
+      drop(3);
+      switch(type){
+      case 0:
+        r = stored();
+        break;
+      case 1:
+        r = codes(InfTree.fixed_tl, 0, InfTree.fixed_bl,
+                  InfTree.fixed_td, 0, InfTree.fixed_bd);
+        break;
+      case 2:
+        r = table();
+        if(r == Z_OK){
+          r = codes(hufts, tree.tl, tree.bl, hufts, tree.td, tree.bd);
+        }
+        break;
+      default:
+        msg = "invalid block type";
+        r = Z_DATA_ERROR;
+      }
+      if(r != Z_OK){
+        flush();
+        return r;
+      }
+    }
+    while(last == 0);
+    flush();
+    return trailer();
+  }
+
+  private int header() throws EndOfInput, IOException {
+    if(wrapperType == JZlib.W_NONE){
+      return Z_OK;
+    }
+    need(16);
+    int b = (int)hold & 0xff;
+    int flg = (int)(hold >>> 8) & 0xff;
+    if(wrapperType == JZlib.W_GZIP ||
+       (wrapperType == JZlib.W_ANY && b == 0x1f && flg == 0x8b)){
+      return gzip_header();
+    }
+    if(wrapperType == JZlib.W_ANY &&
+       ((b << 8) + flg) % 31 != 0 && (b & 0xf) != Z_DEFLATED){
+      // neither gzip nor zlib: raw deflate, as Inflate takes it
+      return Z_OK;
+    }
+    drop(16);
+
+    if(((b << 8) + flg) % 31 != 0){
+      msg = "incorrect header check";
+      return Z_DATA_ERROR;
+    }
+    if((b & 0xf) != Z_DEFLATED){
+      msg = "unknown compression method";
+      return Z_DATA_ERROR;
+    }
+    if((b >> 4) + 8 > wbits){
+      msg = "invalid window size";
+      return Z_DATA_ERROR;
+    }
+    if((flg & 0x20) != 0){
+      msg = "need dictionary";
+      return Z_NEED_DICT;
+    }
+    check = new Adler32();
+    return Z_OK;
+  }
+
+  private int gzip_header() throws EndOfInput, IOException {
+    CRC32 hcrc = new CRC32();
+    byte[] h = this.h;
+    for(int i = 0; i < 10; i++){
+      h[i] = (byte)getbyte();
+    }
+    if(h[0] != (byte)0x1f || h[1] != (byte)0x8b){
+      msg = "incorrect header check";
+      return Z_DATA_ERROR;
+    }
+    if(h[2] != (byte)Z_DEFLATED){
+      msg = "unknown compression method";
+      return Z_DATA_ERROR;
+    }
+    int flags = h[3] & 0xff;
+    if((flags & 0xe0) != 0){
+      msg = "unknown header flags set";
+      return Z_DATA_ERROR;
+    }
+    hcrc.update(h, 0, 10);
+    if((flags & 0x04) != 0){        // FEXTRA
+      int x0 = hbyte(hcrc), x1 = hbyte(hcrc);
+      for(int len = x0 | (x1 << 8); len > 0; len--){
+        hbyte(hcrc);
+      }
+    }
+    if((flags & 0x08) != 0){        // FNAME
+      while(hbyte(hcrc) != 0);
+    }
+    if((flags & 0x10) != 0){        // FCOMMENT
+      while(hbyte(hcrc) != 0);
+    }
+    if((flags & 0x02) != 0){        // FHCRC
+      int c = getbyte() | (getbyte() << 8);
+      if(c != (int)(hcrc.getValue() & 0xffff)){
+        msg = "header crc mismatch";
+        return Z_DATA_ERROR;
+      }
+    }
+    check = new CRC32();
+    return Z_OK;
+  }
+
+  private int hbyte(CRC32 hcrc) throws EndOfInput, IOException {
+    h[0] = (byte)getbyte();
+    hcrc.update(h, 0, 1);
+    return h[0] & 0xff;
+  }
+
+  private int trailer() throws EndOfInput, IOException {
+    if(check == null){
+      return Z_STREAM_END;
+    }
+    drop(bits & 7);
+    if(check instanceof Adler32){
+      long c = 0;
+      for(int i = 0; i < 4; i++){
+        c = (c << 8) | getbyte();
+      }
+      if(c != check.getValue()){
+        msg = "incorrect data check";
+        return Z_DATA_ERROR;
+      }
+      return Z_STREAM_END;
+    }
+
+    long c = 0, isize = 0;
+    for(int i = 0; i < 4; i++){
+      c |= (long)getbyte() << (i * 8);
+    }
+    for(int i = 0; i < 4; i++){
+      isize |= (long)getbyte() << (i * 8);
+    }
+    if(c != check.getValue()){
+      msg = "incorrect data check";
+      return Z_DATA_ERROR;
+    }
+    if(isize != (total_out & 0xffffffffL)){
+      msg = "incorrect length check";
+      return Z_DATA_ERROR;
+    }
+    return Z_STREAM_END;
+  }
+
+  private int stored() throws EndOfInput, IOException {
+    drop(bits & 7);
+    need(32);
+    int len = (int)hold & 0xffff;
+    if((((int)hold >>> 16) & 0xffff) != (~len & 0xffff)){
+      msg = "invalid stored block lengths";
+      return Z_DATA_ERROR;
+    }
+    drop(32);
+    while(len > 0 && bits > 0){
+      put((byte)getbyte());
+      len--;
+    }
+    while(len > 0){
+      if(next == end){
+        pull();
+      }
+      int c = Math.min(len, Math.min(end - next, wsize - wnext));
+      System.arraycopy(in, next, window, wnext, c);
+      next += c;
+      wnext += c;
+      len -= c;
+      if(wnext == wsize){
+        flush();
+      }
+    }
+    return Z_OK;
+  }
+
+  private int table() throws EndOfInput, IOException {
+    need(14);
+    int t = (int)hold & 0x3fff;
+    drop(14);
+    if((t & 0x1f) > 29 || ((t >> 5) & 0x1f) > 29){
+      msg = "too many length or distance symbols";
+      return Z_DATA_ERROR;
+    }
+    int nl = 257 + (t & 0x1f);
+    int nd = 1 + ((t >> 5) & 0x1f);
+
+    int ncode = 4 + (t >>> 10);
+    for(int i = 0; i < 19; i++){
+      lens[border[i]] = 0;
+    }
+    for(int i = 0; i < ncode; i++){
+      need(3);
+      lens[border[i]] = (int)hold & 7;
+      drop(3);
+    }
+    int r = tree.inflate_trees_bits(lens, btree, z);
+    if(r != Z_OK){
+      msg = z.msg;
+      return r;
+    }
+
+    int i = 0;
+    while(i < nl + nd){
+      int c = symbol(btree, 0, tree.bb);
+      c = InfTree.value(c);
+      if(c < 16){
+        lens[i++] = c;
+        continue;
+      }
+      int e = c == 18 ? 7 : c - 14;
+      need(e);
+      int j = (c == 18 ? 11 : 3) + ((int)hold & ((1 << e) - 1));
+      drop(e);
+      if(i + j > nl + nd || (c == 16 && i < 1)){
+        msg = "invalid bit length repeat";
+        return Z_DATA_ERROR;
+      }
+      c = c == 16 ? lens[i-1] : 0;
+      do{
+        lens[i++] = c;
+      }
+      while(--j != 0);
+    }
+
+    r = tree.inflate_trees_dynamic(nl, nd, lens, hufts, z);
+    if(r != Z_OK){
+      msg = z.msg;
+      return r;
+    }
+    return Z_OK;
+  }
+
+  // Decodes literals and matches up to the end of the block.
+  private int codes(int[] lt, int lti, int lb, int[] dt, int dti, int db)
+    throws EndOfInput, IOException {
+    while(true){
+      if(end - next >= 8 && wsize - wnext >= 258){
+        int r = fast(lt, lti, lb, dt, dti, db);
+        if(r != Z_OK){
+          return r == Z_STREAM_END ? Z_OK : r;
+        }
+      }
+
+      int t = symbol(lt, lti, lb);
+      int op = InfTree.op(t);
+      if(op == 0){
+        put((byte)InfTree.value(t));
+        continue;
+      }
+      if((op & 16) == 0){
+        if((op & 32) != 0){
+          return Z_OK;
+        }
+        msg = "invalid literal/length code";
+        return Z_DATA_ERROR;
+      }
+      op &= 15;
+      need(op);
+      int len = InfTree.value(t) + ((int)hold & ((1 << op) - 1));
+      drop(op);
+
+      t = symbol(dt, dti, db);
+      op = InfTree.op(t);
+      if((op & 16) == 0){
+        msg = "invalid distance code";
+        return Z_DATA_ERROR;
+      }
+      op &= 15;
+      need(op);
+      int d = InfTree.value(t) + ((int)hold & ((1 << op) - 1));
+      drop(op);
+      if(d > (wfull ? wsize : wnext)){
+        msg = "invalid distance too far back";
+        return Z_DATA_ERROR;
+      }
+
+      while(len > 0){
+        int r = wnext - d;
+        if(r < 0){
+          r += wsize;
+        }
+        int c = Math.min(len, wsize - Math.max(r, wnext));
+        InfCodes.copy_match(window, r, wnext, c);
+        wnext += c;
+        len -= c;
+        if(wnext == wsize){
+          flush();
+        }
+      }
+    }
+  }
+
+  // The tight loop: runs while at least eight bytes of input and 258
+  // bytes of window are left.  Returns Z_OK when it runs short,
+  // Z_STREAM_END at the end of the block, or Z_DATA_ERROR.
+  private int fast(int[] lt, int lti, int lb, int[] dt, int dti, int db){
+    byte[] in = this.in;
+    byte[] w = window;
+    long b = hold;
+    int k = bits;
+    int p = next;
+    int n = end - next;
+    int q = wnext;
+    int m = wsize - q;
+    int ml = (1 << lb) - 1;
+    int md = (1 << db) - 1;
+    int r = Z_OK;
+
+    loop:
+    do{
+      if(k < 48){
+        b |= (long)LONG_LE.get(in, p) << k;
+        int c = (63 - k) >>> 3;
+        p += c; n -= c;
+        k |= 56;
+      }
+
+      int ti = lti + ((int)b & ml);
+      int t = lt[ti];
+      if(((t >>> 8) & 0xff) == 0){
+        b >>>= t & 0xff; k -= t & 0xff;
+        w[q++] = (byte)(t >>> 16);
+        m--;
+        continue;
+      }
+      while(true){
+        b >>>= t & 0xff; k -= t & 0xff;
+        int e = (t >>> 8) & 0xff;
+        if((e & 16) != 0){
+          e &= 15;
+          int c = (t >>> 16) + ((int)b & ((1 << e) - 1));
+          b >>>= e; k -= e;
+
+          ti = dti + ((int)b & md);
+          t = dt[ti];
+          int d;
+          while(true){
+            b >>>= t & 0xff; k -= t & 0xff;
+            e = (t >>> 8) & 0xff;
+            if((e & 16) != 0){
+              e &= 15;
+              d = (t >>> 16) + ((int)b & ((1 << e) - 1));
+              b >>>= e; k -= e;
+              break;
+            }
+            if((e & 64) == 0){
+              ti += (t >>> 16) + ((int)b & ((1 << e) - 1));
+              t = dt[ti];
+              continue;
+            }
+            msg = "invalid distance code";
+            r = Z_DATA_ERROR;
+            break loop;
+          }
+          if(d > (wfull ? wsize : q)){
+            msg = "invalid distance too far back";
+            r = Z_DATA_ERROR;
+            break loop;
+          }
+
+          m -= c;
+          int s = q - d;
+          if(s < 0){
+            s += wsize;
+            int e2 = wsize - s;
+            if(c > e2){
+              System.arraycopy(w, s, w, q, e2);
+              q += e2; c -= e2;
+              s = 0;
+            }
+          }
+          InfCodes.copy_match(w, s, q, c);
+          q += c;
+          break;
+        }
+        if((e & 64) == 0){
+          ti += (t >>> 16) + ((int)b & ((1 << e) - 1));
+          t = lt[ti];
+          if(((t >>> 8) & 0xff) == 0){
+            b >>>= t & 0xff; k -= t & 0xff;
+            w[q++] = (byte)(t >>> 16);
+            m--;
+            break;
+          }
+          continue;
+        }
+        if((e & 32) != 0){
+          r = Z_STREAM_END;
+          break loop;
+        }
+        msg = "invalid literal/length code";
+        r = Z_DATA_ERROR;
+        break loop;
+      }
+    }
+    while(m >= 258 && n >= 8);
+
+    // give back the whole bytes loaded ahead of need
+    int c = k >> 3;
+    p -= c; k -= c << 3;
+    hold = b & ((1L << k) - 1);
+    bits = k;
+    next = p;
+    wnext = q;
+    return r;
+  }
+
+  // Decodes one symbol, pulling only as many bytes as its code needs.
+  private int symbol(int[] t, int ti, int tb) throws EndOfInput, IOException {
+    while(true){
+      int i = ti + ((int)hold & ((1 << tb) - 1));
+      int e = t[i];
+      int n = InfTree.bits(e);
+      if(n > bits){
+        pullbyte();
+        continue;
+      }
+      hold >>>= n; bits -= n;
+      int op = InfTree.op(e);
+      if(op != 0 && (op & (16|64)) == 0){
+        ti = i + InfTree.value(e);
+        tb = op;
+        continue;
+      }
+      return e;
+    }
+  }
+
+  private void put(byte b) throws IOException {
+    window[wnext++] = b;
+    if(wnext == wsize){
+      flush();
+    }
+  }
+
+  // Hands the window's new contents to the consumer.
+  private void flush() throws IOException {
+    if(wnext == 0){
+      return;
+    }
+    if(check != null){
+      check.update(window, 0, wnext);
+    }
+    total_out += wnext;
+    view.clear();
+    view.limit(wnext);
+    consumer.accept(view);
+    if(wnext == wsize){
+      wnext = 0;
+      wfull = true;
+    }
+  }
+
+  private void need(int n) throws EndOfInput, IOException {
+    while(bits < n){
+      pullbyte();
+    }
+  }
+
+  private void drop(int n){
+    hold >>>= n;
+    bits -= n;
+  }
+
+  private int getbyte() throws EndOfInput, IOException {
+    need(8);
+    int b = (int)hold & 0xff;
+    drop(8);
+    return b;
+  }
+
+  private void pullbyte() throws EndOfInput, IOException {
+    if(next == end){
+      pull();
+    }
+    hold |= (long)(in[next++] & 0xff) << bits;
+    bits += 8;
+  }
+
+  // Moves on to the next chunk of input.
+  private void pull() throws EndOfInput, IOException {
+    release();
+    ByteBuffer b = src;
+    if(b == null || !b.hasRemaining()){
+      b = supplier.get();
+      if(b == null || !b.hasRemaining()){
+        src = null;
+        throw END_OF_INPUT;
+      }
+    }
+    src = b;
+    if(b.hasArray()){
+      in = b.array();
+      start = next = b.arrayOffset() + b.position();
+      end = b.arrayOffset() + b.limit();
+      copied = false;
+    }
+    else{
+      if(scratch == null){
+        scratch = new byte[8192];
+      }
+      int len = Math.min(b.remaining(), scratch.length);
+      b.get(scratch, 0, len);
+      in = scratch;
+      start = next = 0;
+      end = len;
+      copied = true;
+    }
+  }
+
+  // Accounts for the consumed part of the current chunk and leaves the
+  // source buffer positioned after it.
+  private void release(){
+    if(src == null){
+      return;
+    }
+    total_in += next - start;
+    if(copied){
+      src.position(src.position() - (end - next));
+    }
+    else{
+      src.position(next - (src.arrayOffset()));
+    }
+    start = end = next;
+  }
+}
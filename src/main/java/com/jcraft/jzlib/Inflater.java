@@ -44,6 +44,7 @@ final public class Inflater extends ZStream{
   static final private int Z_SYNC_FLUSH=2;
   static final private int Z_FULL_FLUSH=3;
   static final private int Z_FINISH=4;
+  static final private int Z_BLOCK=5;
 
   static final private int MAX_MEM_LEVEL=9;
 
@@ -90,6 +91,8 @@ final public class Inflater extends ZStream{
 
   private boolean finished = false;
 
+  int pool_key = -1;     // set by CodecPool
+
   public int init(){
     return init(DEF_WBITS);
   }
@@ -130,12 +133,36 @@ final public class Inflater extends ZStream{
 
   public int inflate(int f){
     if(istate==null) return Z_STREAM_ERROR;
-    int ret = istate.inflate(f);
+    return inflated(buffers() ? transfer(f, false) : istate.inflate(f));
+  }
+
+  private int inflated(int ret){
     if(ret == Z_STREAM_END) 
       finished = true;
+    data_type = istate.dataType();
     return ret;
   }
 
+  // Inflates as inflate(Z_NO_FLUSH) does, but up to len bytes of output
+  // are thrown away instead of going to next_out: they are still checked
+  // and kept as history, and counted in total_out.
+  int discard(int len){
+    if(istate==null || istate.blocks==null) return Z_STREAM_ERROR;
+    int index = next_out_index;
+    int avail = avail_out;
+    next_out_index = 0;
+    avail_out = len;
+    istate.blocks.discard = true;
+    try{
+      return inflated(istate.inflate(Z_NO_FLUSH));
+    }
+    finally{
+      istate.blocks.discard = false;
+      next_out_index = index;
+      avail_out = avail;
+    }
+  }
+
   public int end(){
     finished = true;
     if(istate==null) return Z_STREAM_ERROR;
@@ -144,6 +171,17 @@ final public class Inflater extends ZStream{
     return ret;
   }
 
+  /**
+   * Resets this inflater so that it can decode a new stream with the
+   * same parameters given to init(), keeping its window and tables.
+   */
+  public int reset(){
+    finished = false;
+    if(istate == null)
+      return Z_STREAM_ERROR;
+    return istate.inflateReset2();
+  }
+
   public int sync(){
     if(istate == null)
       return Z_STREAM_ERROR;
@@ -156,6 +194,18 @@ final public class Inflater extends ZStream{
     return istate.inflateSyncPoint();
   }
 
+  /**
+   * Inserts bits ahead of the input, as zlib's inflatePrime(): the low
+   * bits (at most 16) of value are decoded first.  With bits negative,
+   * the bit buffer is emptied.  Used to start a raw inflater in the
+   * middle of a byte, together with setDictionary().
+   */
+  public int prime(int bits, int value){
+    if(istate == null)
+      return Z_STREAM_ERROR;
+    return istate.inflatePrime(bits, value);
+  }
+
   public int setDictionary(byte[] dictionary, int dictLength){
     if(istate == null)
       return Z_STREAM_ERROR;
@@ -29,6 +29,7 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 import java.io.*;
+import java.util.Arrays;
 
 public class InflaterInputStream extends FilterInputStream {
   protected final Inflater inflater;
@@ -42,6 +43,11 @@ public class InflaterInputStream extends FilterInputStream {
 
   protected static final int DEFAULT_BUFSIZE = 512;
 
+  private static final int TRANSFER_BUFSIZE = 1<<16;
+  static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+  // the most allocated up front on a size hint, which may be wrong
+  private static final int MAX_HINTED_SIZE = 1<<23;
+
   public InflaterInputStream(InputStream in) throws IOException {
     this(in, false);
   }
@@ -95,33 +101,103 @@ public class InflaterInputStream extends FilterInputStream {
     else if (len == 0) {
       return 0;
     }
-    else if (eof) {
-      return -1;
+
+    int n = 0;
+    while(n == 0) {
+      if(eof) {
+        if(!nextStream())
+          return -1;
+        eof = false;
+      }
+      inflater.setOutput(b, off, len);
+      while(!eof) {
+        if(inflater.avail_in==0)
+          fill();
+        int err = inflater.inflate(JZlib.Z_NO_FLUSH);
+        n += inflater.next_out_index - off;
+        off = inflater.next_out_index;
+        switch(err) {
+          case JZlib.Z_DATA_ERROR:
+            throw new IOException(inflater.msg);
+          case JZlib.Z_STREAM_END:
+          case JZlib.Z_NEED_DICT:
+            eof = true;
+            if(err == JZlib.Z_NEED_DICT)
+              return -1;
+            break;
+          default:
+        } 
+        if(inflater.avail_out==0)
+          break;
+      }
     }
+    return n;
+  }
+
+  /**
+   * Called when more is read after the end of the compressed stream.
+   * Returns true if the inflater has been made ready for a stream that
+   * follows, or false to report the end of the input.
+   */
+  protected boolean nextStream() throws IOException {
+    return false;
+  }
+
+  /**
+   * Inflates straight into the array returned, sized up front, up to 8MB,
+   * if the length of the data can be told.
+   */
+  public byte[] readAllBytes() throws IOException {
+    return readNBytes(Integer.MAX_VALUE);
+  }
 
+  public byte[] readNBytes(int len) throws IOException {
+    if (len < 0) {
+      throw new IllegalArgumentException("len < 0");
+    }
+    if (closed) { throw new IOException("Stream closed"); }
+
+    long hint = sizeHint();
+    byte[] b = new byte[(int)Math.min(len, hint >= 0 ? Math.min(hint, MAX_HINTED_SIZE) : 8192)];
     int n = 0;
-    inflater.setOutput(b, off, len);
-    while(!eof) {
-      if(inflater.avail_in==0)
-        fill();
-      int err = inflater.inflate(JZlib.Z_NO_FLUSH);
-      n += inflater.next_out_index - off;
-      off = inflater.next_out_index;
-      switch(err) {
-        case JZlib.Z_DATA_ERROR:
-          throw new IOException(inflater.msg);
-        case JZlib.Z_STREAM_END:
-        case JZlib.Z_NEED_DICT:
-          eof = true;
-          if(err == JZlib.Z_NEED_DICT)
-            return -1;
+    while (n < len) {
+      if (n == b.length) {
+        // full, but maybe just right: see if there is more first
+        int c = read();
+        if (c == -1)
           break;
-        default:
-      } 
-      if(inflater.avail_out==0)
+        if (n == MAX_ARRAY_SIZE)
+          throw new OutOfMemoryError("Required array size too large");
+        b = Arrays.copyOf(b, (int)Math.min(Math.max(2L*n, 8192), Math.min(len, MAX_ARRAY_SIZE)));
+        b[n++] = (byte)c;
+        continue;
+      }
+      int k = read(b, n, b.length - n);
+      if (k == -1)
         break;
+      n += k;
     }
-    return n;
+    return n == b.length ? b : Arrays.copyOf(b, n);
+  }
+
+  public long transferTo(OutputStream out) throws IOException {
+    if (out == null) {
+      throw new NullPointerException();
+    }
+    byte[] b = new byte[TRANSFER_BUFSIZE];
+    long total = 0;
+    int n;
+    while ((n = read(b, 0, b.length)) != -1) {
+      out.write(b, 0, n);
+      total += n;
+    }
+    return total;
+  }
+
+  // The number of bytes left to inflate, if known, or -1.  Only a hint:
+  // there may be more or fewer.
+  long sizeHint() throws IOException {
+    return -1;
   }
 
   public int available() throws IOException {
@@ -134,8 +210,11 @@ public class InflaterInputStream extends FilterInputStream {
     }
   }
 
-  private byte[] b = new byte[512];
-
+  /**
+   * Skips n bytes of uncompressed data.  They are inflated and checked,
+   * but never copied out, so skipping far ahead costs little more than
+   * the inflating itself.
+   */
   public long skip(long n) throws IOException {
     if (n < 0) {
       throw new IllegalArgumentException("negative skip length");
@@ -143,19 +222,29 @@ public class InflaterInputStream extends FilterInputStream {
 
     if (closed) { throw new IOException("Stream closed"); }
 
-    int max = (int)Math.min(n, Integer.MAX_VALUE);
-    int total = 0;
-    while (total < max) {
-      int len = max - total;
-      if (len > b.length) {
-        len = b.length;
+    long total = 0;
+    while (total < n) {
+      if(eof) {
+        if(!nextStream())
+          break;
+        eof = false;
       }
-      len = read(b, 0, len);
-      if (len == -1) {
-        eof = true;
-        break;
+      if(inflater.avail_in==0)
+        fill();
+      long out = inflater.total_out;
+      int err = inflater.discard((int)Math.min(n - total, 1<<30));
+      total += inflater.total_out - out;
+      switch(err) {
+        case JZlib.Z_DATA_ERROR:
+          throw new IOException(inflater.msg);
+        case JZlib.Z_STREAM_END:
+        case JZlib.Z_NEED_DICT:
+          eof = true;
+          if(err == JZlib.Z_NEED_DICT)
+            return total;
+          break;
+        default:
       }
-      total += len;
     }
     return total;
   }
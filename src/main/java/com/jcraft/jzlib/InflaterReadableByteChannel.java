@@ -0,0 +1,191 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Inflates what is read from a ReadableByteChannel, working on ByteBuffers
+ * throughout.
+ * <p>
+ * The channel read from may be non-blocking.  Then read() returns 0 when
+ * nothing can be inflated until the channel has more to read.  Once some
+ * output has been made, read() returns it rather than wait for more input.
+ */
+public class InflaterReadableByteChannel implements ReadableByteChannel {
+
+  protected final Inflater inflater;
+
+  protected final ReadableByteChannel in;
+
+  // input read but not inflated yet, ready to be read
+  protected final ByteBuffer buf;
+
+  protected boolean myinflater = false;
+
+  private boolean closed = false;
+
+  private boolean eof = false;
+
+  private boolean close_in = true;
+
+  protected static final int DEFAULT_BUFSIZE = 8192;
+
+  public InflaterReadableByteChannel(ReadableByteChannel in) {
+    this(in, new Inflater(), DEFAULT_BUFSIZE, true);
+    myinflater = true;
+  }
+
+  public InflaterReadableByteChannel(ReadableByteChannel in,
+                                     Inflater inflater) {
+    this(in, inflater, DEFAULT_BUFSIZE, true);
+  }
+
+  public InflaterReadableByteChannel(ReadableByteChannel in,
+                                     Inflater inflater,
+                                     int size,
+                                     boolean close_in) {
+    if (in == null || inflater == null) {
+      throw new NullPointerException();
+    }
+    else if (size <= 0) {
+      throw new IllegalArgumentException("buffer size must be greater than 0");
+    }
+    this.in = in;
+    this.inflater = inflater;
+    buf = ByteBuffer.allocate(size);
+    buf.flip();
+    this.close_in = close_in;
+  }
+
+  public int read(ByteBuffer dst) throws IOException {
+    ensureOpen();
+    int start = dst.position();
+    while (dst.hasRemaining()) {
+      if (eof) {
+        int r = nextStream();
+        if (r <= 0)
+          return dst.position() > start ? dst.position() - start : r;
+        eof = false;
+      }
+      inflater.setInput(buf);
+      inflater.setOutput(dst);
+      int err = inflater.inflate(JZlib.Z_NO_FLUSH);
+      switch (err) {
+        case JZlib.Z_STREAM_END:
+          eof = true;
+          continue;
+        case JZlib.Z_NEED_DICT:
+          throw new IOException("need dictionary");
+        case JZlib.Z_DATA_ERROR:
+          throw new IOException(inflater.msg);
+        default:
+      }
+      if (!dst.hasRemaining() || dst.position() > start)
+        break;
+      int n = fill();
+      if (n == 0)
+        return 0;
+      if (n == -1) {
+        if (inflater.istate.wrap == 0 &&
+            !inflater.finished()) {
+          buf.limit(buf.limit() + 1).put(buf.limit() - 1, (byte)0);
+        }
+        else if (inflater.istate.was != -1) {  // in reading trailer
+          throw new IOException("footer is not found");
+        }
+        else {
+          throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+      }
+    }
+    return dst.position() - start;
+  }
+
+  /**
+   * Called when more is read after the end of the compressed stream.
+   * Returns 1 if the inflater has been made ready for a stream that
+   * follows, -1 to report the end of the input, or 0 if that cannot be
+   * told until the channel has more to read.
+   */
+  protected int nextStream() throws IOException {
+    return -1;
+  }
+
+  /**
+   * Reads more input into buf, keeping what is left there, and returns
+   * what the channel's read() did.
+   */
+  protected int fill() throws IOException {
+    buf.compact();
+    try {
+      return in.read(buf);
+    }
+    finally {
+      buf.flip();
+    }
+  }
+
+  public void close() throws IOException {
+    if (!closed) {
+      if (myinflater)
+        inflater.end();
+      if (close_in)
+        in.close();
+      closed = true;
+    }
+  }
+
+  public boolean isOpen() {
+    return !closed;
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new ClosedChannelException();
+    }
+  }
+
+  public long getTotalIn() {
+    return inflater.getTotalIn();
+  }
+
+  public long getTotalOut() {
+    return inflater.getTotalOut();
+  }
+
+  public Inflater getInflater() {
+    return inflater;
+  }
+}
@@ -66,6 +66,7 @@ final public class JZlib{
   static final public int Z_SYNC_FLUSH=2;
   static final public int Z_FULL_FLUSH=3;
   static final public int Z_FINISH=4;
+  static final public int Z_BLOCK=5;     // inflate only: stop at block boundaries
 
   static final public int Z_OK=0;
   static final public int Z_STREAM_END=1;
@@ -0,0 +1,226 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Compresses and decompresses files with the source mapped into memory,
+ * so that it is fed to the engine from the mapping instead of being read
+ * into the heap.  Files of any length are handled a window at a time.
+ * <p>
+ * Inflating a gzip file, the output is mapped as well, sized up front from
+ * the ISIZE of the last member; output past that size, and other output,
+ * is written from a buffer.  If the gzip file ends in something other
+ * than a member and so less is inflated than was mapped, dst is
+ * truncated while still mapped, which fails on platforms such as Windows
+ * that do not let a mapped file shrink.
+ */
+public final class MappedFiles {
+
+  static final private int Z_OK=0;
+  static final private int Z_STREAM_END=1;
+  static final private int Z_NEED_DICT=2;
+  static final private int Z_BUF_ERROR=-5;
+
+  static final private int BUFSIZE=1<<16;
+  static final private int WINDOW=1<<30;
+
+  private MappedFiles(){
+  }
+
+  /**
+   * Deflates src into dst, made or replaced, and returns the length of
+   * dst.
+   */
+  public static long deflate(Path src, Path dst,
+                             int level, JZlib.WrapperType wrapperType) throws IOException {
+    return deflate(src, dst, level, wrapperType, WINDOW);
+  }
+
+  /**
+   * Inflates the zlib or gzip file src into dst, made or replaced, and
+   * returns the length of dst.  All the members of a multi-member gzip
+   * file are inflated; anything else following a member is ignored.
+   */
+  public static long inflate(Path src, Path dst) throws IOException {
+    return inflate(src, dst, WINDOW);
+  }
+
+  static long deflate(Path src, Path dst,
+                      int level, JZlib.WrapperType wrapperType,
+                      int window) throws IOException {
+    try(FileChannel in = FileChannel.open(src, READ);
+        FileChannel out = FileChannel.open(dst, WRITE, CREATE, TRUNCATE_EXISTING)){
+      Deflater deflater = new Deflater(level, 15, 8, wrapperType);
+      try{
+        long size = in.size();
+        ByteBuffer ob = ByteBuffer.allocate(BUFSIZE);
+        long in_base = 0;
+        do{
+          long len = Math.min(window, size - in_base);
+          ByteBuffer ib = in.map(FileChannel.MapMode.READ_ONLY, in_base, len);
+          in_base += len;
+          int flush = in_base == size ? JZlib.Z_FINISH : JZlib.Z_NO_FLUSH;
+          deflater.setInput(ib);
+          int err;
+          do{
+            deflater.setOutput(ob);
+            err = deflater.deflate(flush);
+            if(err != Z_OK && err != Z_STREAM_END && err != Z_BUF_ERROR)
+              throw new IOException("failed to deflate: error="+err);
+            write(out, ob);
+          }
+          while(ib.hasRemaining() || flush == JZlib.Z_FINISH && err != Z_STREAM_END);
+        }
+        while(in_base < size);
+        return deflater.getTotalOut();
+      }
+      finally{
+        deflater.end();
+      }
+    }
+  }
+
+  static long inflate(Path src, Path dst, int window) throws IOException {
+    try(FileChannel in = FileChannel.open(src, READ);
+        FileChannel out = FileChannel.open(dst, READ, WRITE, CREATE, TRUNCATE_EXISTING)){
+      long size = in.size();
+      long hint = sizeHint(in, size);
+      Inflater inflater = new Inflater(JZlib.W_ANY);
+      try{
+        long in_base = 0, out_base = 0;
+        ByteBuffer ib = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(window, size));
+        boolean mapped = hint > 0;
+        ByteBuffer ob = mapped ?
+          out.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(window, hint)) :
+          ByteBuffer.allocate(BUFSIZE);
+        boolean end = false;
+        while(true){
+          if(ib.remaining() < 2 && in_base + ib.limit() < size){
+            in_base += ib.position();
+            ib = in.map(FileChannel.MapMode.READ_ONLY, in_base,
+                        Math.min(window, size - in_base));
+          }
+          if(end){
+            if(!nextMember(inflater, ib))
+              break;
+            end = false;
+          }
+          if(!ob.hasRemaining()){
+            out_base += ob.position();
+            if(mapped && out_base < hint){
+              ob = out.map(FileChannel.MapMode.READ_WRITE, out_base,
+                           Math.min(window, hint - out_base));
+            }
+            else if(mapped){
+              // past the hint when there are several members
+              mapped = false;
+              out.position(out_base);
+              ob = ByteBuffer.allocate(BUFSIZE);
+            }
+            else{
+              write(out, ob);
+            }
+          }
+
+          inflater.setInput(ib);
+          inflater.setOutput(ob);
+          int err = inflater.inflate(JZlib.Z_NO_FLUSH);
+          if(err == Z_STREAM_END){
+            end = true;
+          }
+          else if(err == Z_BUF_ERROR){
+            throw new EOFException("Unexpected end of ZLIB input stream");
+          }
+          else if(err == Z_NEED_DICT){
+            throw new IOException("need dictionary");
+          }
+          else if(err != Z_OK){
+            throw new IOException(inflater.msg);
+          }
+        }
+
+        long total = out_base + ob.position();
+        if(mapped){
+          if(out.size() > total)
+            out.truncate(total);
+        }
+        else{
+          write(out, ob);
+        }
+        return total;
+      }
+      finally{
+        inflater.end();
+      }
+    }
+  }
+
+  // Makes the inflater ready for a gzip member that follows in ib.
+  private static boolean nextMember(Inflater inflater, ByteBuffer ib){
+    if((inflater.istate.wrap & 2) == 0 || ib.remaining() < 2)
+      return false;
+    int p = ib.position();
+    if((ib.get(p) & 0xff) != 0x1f || (ib.get(p + 1) & 0xff) != 0x8b)
+      return false;
+    inflater.reset();
+    return true;
+  }
+
+  // The ISIZE of the last member of a gzip file, or -1 if it is not one
+  // or could not be inflated from size bytes.
+  private static long sizeHint(FileChannel in, long size) throws IOException {
+    if(size < 18)
+      return -1;
+    ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    if(in.read(b, 0) != 4 || b.getShort(0) != (short)0x8b1f)
+      return -1;
+    b.clear();
+    if(in.read(b, size - 4) != 4)
+      return -1;
+    long hint = b.getInt(0) & 0xffffffffL;
+    return hint <= size * 1032 ? hint : -1;
+  }
+
+  private static void write(FileChannel out, ByteBuffer b) throws IOException {
+    b.flip();
+    while(b.hasRemaining())
+      out.write(b);
+    b.clear();
+  }
+}
@@ -0,0 +1,387 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Reads a multi-member gzip file, inflating its members in parallel.
+ *
+ * <p>Where one member ends is only known once it has been inflated, so
+ * the file is scanned ahead for anything that looks like a gzip header
+ * and each such candidate is inflated as a member on the pool.  The
+ * reader then walks the real members in order: the member at the end of
+ * the previous one is taken from its task, candidates in between are
+ * dropped.  A task stops once it has LIMIT bytes of output, and the
+ * reader takes its output and goes on from where it stopped, with the
+ * same inflater, as a stream; so a file of large members needs no more
+ * memory than LIMIT for each task ahead.  A member that failed is
+ * inflated again here as a stream, so that errors surface in order.
+ *
+ * <p>As with GZIPInputStream, anything after the last member that is not
+ * a gzip header is ignored.
+ */
+public class ParallelGZIPInputStream extends InputStream {
+
+  static final private int Z_OK=0;
+  static final private int Z_STREAM_END=1;
+  static final private int Z_BUF_ERROR=-5;
+
+  static final private int CHUNK=1<<16;
+  static final private int LIMIT=1<<22;
+
+  private final FileChannel file;
+  private final ForkJoinPool pool;
+  private final int ahead;
+  private final boolean close_in;
+  private final long size;
+
+  private final ArrayDeque<Member> members = new ArrayDeque<>();
+  private final long first;     // where the first member starts
+  private long pos;             // where the next member starts
+
+  private final ByteBuffer scanbuf = ByteBuffer.allocate(CHUNK);
+  private long scanstart;       // file offset of scanbuf
+  private long scan;            // candidates before this are queued
+
+  private List<byte[]> current;
+  private int ci, cpos;
+  private InflaterInputStream stream;
+
+  private boolean eof = false;
+  private boolean closed = false;
+
+  public ParallelGZIPInputStream(FileChannel file) throws IOException {
+    this(file, ForkJoinPool.commonPool(), true);
+  }
+
+  public ParallelGZIPInputStream(FileChannel file,
+                                 ForkJoinPool pool,
+                                 boolean close_in) throws IOException {
+    if (file == null || pool == null) {
+      throw new NullPointerException();
+    }
+    this.file = file;
+    this.pool = pool;
+    this.ahead = 2 * pool.getParallelism();
+    this.close_in = close_in;
+    this.size = file.size();
+    this.first = file.position();
+    this.pos = first;
+    this.scan = pos;
+    this.scanstart = pos;
+    scanbuf.limit(0);
+  }
+
+  private final class Member implements Runnable {
+    final long start;
+    ForkJoinTask<?> task;
+    volatile boolean cancelled;
+
+    final List<byte[]> out = new ArrayList<>();
+    long end = -1;              // set if inflated
+    Inflater inflater;          // set if stopped at LIMIT, to go on with
+    long p;                     // where its input goes on
+
+    Member(long start){
+      this.start = start;
+    }
+
+    public void run(){
+      Inflater inflater = null;
+      try{
+        inflater = new Inflater(JZlib.W_GZIP);
+        ByteBuffer in = ByteBuffer.allocate(CHUNK);
+        long p = start;
+        long total = 0;
+        byte[] o = new byte[CHUNK];
+        while(!cancelled){
+          if(inflater.avail_in == 0){
+            in.clear();
+            int n = file.read(in, p);
+            if(n <= 0)
+              return;
+            p += n;
+            inflater.setInput(in.array(), 0, n, false);
+          }
+          inflater.setOutput(o, inflater.next_out_index,
+                             CHUNK - inflater.next_out_index);
+          int err = inflater.inflate(JZlib.Z_NO_FLUSH);
+          if(err == Z_STREAM_END){
+            out.add(Arrays.copyOf(o, inflater.next_out_index));
+            end = start + inflater.total_in;
+            return;
+          }
+          if(err != Z_OK && err != Z_BUF_ERROR)
+            return;
+          if(inflater.next_out_index == CHUNK){
+            out.add(o);
+            total += CHUNK;
+            if(total >= LIMIT){
+              if(!cancelled){
+                this.inflater = inflater;
+                this.p = p;
+                inflater = null;
+              }
+              return;
+            }
+            o = new byte[CHUNK];
+            inflater.next_out_index = 0;
+          }
+        }
+      }
+      catch(IOException e){
+      }
+      finally{
+        if(inflater != null)
+          inflater.end();
+        if(end < 0 && this.inflater == null)
+          out.clear();
+      }
+    }
+  }
+
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    if (b == null) {
+      throw new NullPointerException();
+    }
+    else if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    else if (len == 0) {
+      return 0;
+    }
+
+    while(!eof){
+      if(current != null && ci < current.size()){
+        byte[] c = current.get(ci);
+        int n = Math.min(len, c.length - cpos);
+        System.arraycopy(c, cpos, b, off, n);
+        cpos += n;
+        if(cpos == c.length){
+          ci++;
+          cpos = 0;
+        }
+        if(n > 0)
+          return n;
+      }
+      else if(stream != null){
+        int n = stream.read(b, off, len);
+        if(n > 0)
+          return n;
+        pos += stream.getTotalIn();
+        stream.close();
+        stream = null;
+      }
+      else{
+        eof = !advance();
+      }
+    }
+    return -1;
+  }
+
+  public long skip(long n) throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    long total = 0;
+    while(total < n && !eof){
+      if(current != null && ci < current.size()){
+        int k = (int)Math.min(n - total, current.get(ci).length - cpos);
+        cpos += k;
+        total += k;
+        if(cpos == current.get(ci).length){
+          ci++;
+          cpos = 0;
+        }
+      }
+      else if(stream != null){
+        long k = stream.skip(n - total);
+        if(k > 0){
+          total += k;
+          continue;
+        }
+        pos += stream.getTotalIn();
+        stream.close();
+        stream = null;
+      }
+      else{
+        eof = !advance();
+      }
+    }
+    return total;
+  }
+
+  public int available() throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    if(current != null && ci < current.size())
+      return current.get(ci).length - cpos;
+    if(stream != null)
+      return stream.available();
+    return 0;
+  }
+
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      for(Member m : members)
+        drop(m);
+      members.clear();
+      current = null;
+      if(stream != null)
+        stream.close();
+      if(close_in)
+        file.close();
+    }
+  }
+
+  // Makes the member at pos current; false if there is none.  The first
+  // member is always read, if only to fail on what is not gzip.
+  private boolean advance() throws IOException {
+    current = null;
+    while(!members.isEmpty() && members.peek().start < pos)
+      drop(members.poll());
+    if(scan < pos)
+      scan = pos;
+    while(members.size() < ahead){
+      long c = candidate();
+      if(c < 0)
+        break;
+      Member m = new Member(c);
+      m.task = pool.submit(m);
+      members.add(m);
+    }
+
+    Member m = members.peek();
+    if(m != null && m.start == pos){
+      members.poll();
+      m.task.join();
+      if(m.end >= 0){
+        current = m.out;
+        ci = cpos = 0;
+        pos = m.end;
+        return true;
+      }
+      if(m.inflater != null){
+        // stopped at LIMIT: its output, then the rest as a stream
+        current = m.out;
+        ci = cpos = 0;
+        stream = new InflaterInputStream(new Input(m.p), m.inflater, CHUNK, false);
+        stream.myinflater = true;
+        return true;
+      }
+    }
+    else if(pos != first){
+      return false;
+    }
+
+    Inflater inflater = new Inflater(JZlib.W_GZIP);
+    stream = new InflaterInputStream(new Input(pos), inflater, CHUNK, false);
+    stream.myinflater = true;
+    return true;
+  }
+
+  // Stops the member's task, or ends the inflater it stopped with.
+  private static void drop(Member m){
+    m.cancelled = true;
+    if(m.task.isDone() && m.inflater != null){
+      m.inflater.end();
+      m.inflater = null;
+    }
+  }
+
+  // The offset of the next plausible gzip header at or after scan, or -1.
+  private long candidate() throws IOException {
+    while(true){
+      int i = (int)(scan - scanstart);
+      if(i < 0 || i > scanbuf.limit()){
+        scanstart = scan;
+        scanbuf.limit(0);
+        i = 0;
+      }
+      byte[] b = scanbuf.array();
+      int n = scanbuf.limit();
+      for(; i + 4 <= n; i++){
+        if(b[i] == (byte)0x1f && b[i+1] == (byte)0x8b &&
+           b[i+2] == 8 && (b[i+3] & 0xe0) == 0){
+          scan = scanstart + i + 1;
+          return scanstart + i;
+        }
+      }
+      if(scanstart + n >= size){
+        scan = size;
+        return -1;
+      }
+      // keep the last three bytes, a header may start in them
+      scanstart += i;
+      System.arraycopy(b, i, b, 0, n - i);
+      scanbuf.clear().position(n - i);
+      while(scanbuf.hasRemaining()){
+        if(file.read(scanbuf, scanstart + scanbuf.position()) < 0)
+          break;
+      }
+      scanbuf.flip();
+      scan = scanstart;
+    }
+  }
+
+  private final class Input extends InputStream {
+    private long p;
+
+    Input(long p){
+      this.p = p;
+    }
+
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = file.read(ByteBuffer.wrap(b, off, len), p);
+      if(n > 0)
+        p += n;
+      return n;
+    }
+  }
+}
@@ -0,0 +1,778 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Inflates a gzip member held in memory on several threads, without any
+ * help from whoever compressed it, the way pugz does.
+ *
+ * <p>The deflate data is cut into ranges.  For each range but the first,
+ * a task looks for the first bit position in it that starts a plausible
+ * dynamic block and decodes from there up to the first dynamic block at
+ * or after the end of the range.  The 32K of history before the range is
+ * not known yet, so bytes copied from it are kept as placeholders naming
+ * their place in it.  The ranges are then taken in order: a range is kept
+ * if it started exactly where the one before it stopped, and otherwise
+ * it was a false start and is decoded again from the right place.  Once
+ * the history before a range is known, its placeholders are filled in
+ * and its CRC-32 taken, and the CRCs are combined to check the trailer.
+ *
+ * <p>A range is cut short at a block boundary once it has decoded 4MB,
+ * and the rest of it is decoded in order; ranges speculated on later
+ * are sized from the compression ratio seen so far to stay under that.
+ * This bounds the memory held to a few MB for each of 'threads' ranges.
+ *
+ * <p>Inputs of less than two ranges are inflated with an Inflater.
+ */
+public final class ParallelInflater {
+
+  static final private int Z_OK=0;
+  static final private int Z_STREAM_END=1;
+  static final private int Z_DATA_ERROR=-3;
+  static final private int Z_BUF_ERROR=-5;
+  static final private int Z_NO_FLUSH=0;
+
+  static final private int WSIZE=1<<15;
+  static final private int DEFAULT_RANGE=4<<20;
+  // output a range is cut short at, at the next block
+  static final private int MAX_OUT=4<<20;
+  static final private byte[] NO_HISTORY=new byte[0];
+
+  private final Executor executor;
+  private final int threads;
+  private final int range;
+
+  public ParallelInflater(){
+    this(ForkJoinPool.commonPool(),
+         Runtime.getRuntime().availableProcessors(), DEFAULT_RANGE);
+  }
+
+  /**
+   * @param executor runs the decoding tasks
+   * @param threads the number of ranges decoded ahead at a time
+   * @param range the number of compressed bytes in each range
+   */
+  public ParallelInflater(Executor executor, int threads, int range){
+    if(executor == null)
+      throw new NullPointerException();
+    if(threads < 1)
+      throw new IllegalArgumentException("threads: "+threads);
+    if(range < 2*WSIZE)
+      throw new IllegalArgumentException("range: "+range);
+    this.executor = executor;
+    this.threads = threads;
+    this.range = range;
+  }
+
+  public long inflate(byte[] in, OutputStream out) throws IOException {
+    return inflate(in, 0, in.length, out);
+  }
+
+  /**
+   * Inflates the gzip member in in[off..off+len), which must end with
+   * its trailer, and writes the output to out in order.
+   *
+   * @return the number of bytes written
+   */
+  public long inflate(byte[] in, int off, int len, OutputStream out) throws IOException {
+    if(off < 0 || len < 0 || len > in.length - off)
+      throw new IndexOutOfBoundsException();
+
+    int start = header(in, off, len);
+    int ranges = (off + len - 8 - start) / range;
+    if(ranges < 2 || threads == 1){
+      return sequential(in, off, len, out);
+    }
+
+    int limit = off + len;
+    long end = (limit - 8) * 8L;     // no deflate data starts past here
+    AtomicBoolean abort = new AtomicBoolean();
+    ArrayDeque<CompletableFuture<Chunk>> ahead = new ArrayDeque<>();
+    CompletableFuture<Part> pending = null;
+    long size = range * 8L;          // bits in the ranges speculated on
+    long from = start * 8L;          // where the next of them begins
+
+    byte[] hist = new byte[WSIZE];  // output before the current range
+    int hlen = 0;
+    long pos = start * 8L;          // where the current range must start
+    boolean last = false;
+    long crc = 0;
+    long total = 0;
+
+    try{
+      while(!last){
+        while(ahead.size() < threads && from < end){
+          long stop = from + size < end - size ? from + size : Long.MAX_VALUE;
+          ahead.add(speculate(in, limit, from, stop, from == start * 8L, abort));
+          from = stop;
+        }
+
+        Chunk c = ahead.isEmpty() ? null : join(ahead.poll());
+        if(c == null || c.start != pos || c.err != null){
+          long stop = c == null ? Long.MAX_VALUE : c.stop;
+          if(pos >= stop){
+            continue;               // covered by the range before
+          }
+          c = redo(in, limit, pos, stop, hist, hlen);
+        }
+
+        while(true){
+          Chunk d = c;
+          byte[] h = hist;
+          int hl = hlen;
+          CompletableFuture<Part> part = CompletableFuture.supplyAsync(() -> {
+              try{
+                return d.resolve(h, hl);
+              }
+              catch(GZIPException e){
+                throw new CompletionException(e);
+              }
+            }, executor);
+
+          hist = d.history(h, hl);
+          hlen = Math.min(WSIZE, hl + d.n - WSIZE);
+          pos = d.end;
+          last = d.last;
+
+          if(pending != null){
+            Part p = join(pending);
+            out.write(p.data);
+            crc = CRC32.combine(crc, p.crc, p.data.length);
+            total += p.data.length;
+          }
+          pending = part;
+
+          // aim the ranges still to be speculated on at half the output
+          // allowed in one
+          long bits = d.end - d.start;
+          long bytes = Math.max(d.n - WSIZE, 1);
+          size = Math.max(2 * WSIZE * 8L,
+                          Math.min(range * 8L, bits * (MAX_OUT / 2) / bytes));
+
+          if(last || pos >= d.stop)
+            break;
+          // cut short by MAX_OUT: the rest of the range is decoded here
+          c = redo(in, limit, pos, d.stop, hist, hlen);
+        }
+      }
+      Part p = join(pending);
+      pending = null;
+      out.write(p.data);
+      crc = CRC32.combine(crc, p.crc, p.data.length);
+      total += p.data.length;
+    }
+    finally{
+      // left over after the last block, or after an error
+      abort.set(true);
+      for(CompletableFuture<Chunk> f : ahead){
+        f.cancel(false);
+      }
+    }
+
+    trailer(in, (int)((pos + 7) >>> 3), limit, crc, total);
+    return total;
+  }
+
+  private static Chunk redo(byte[] in, int limit, long pos, long stop,
+                            byte[] hist, int hlen) throws GZIPException {
+    Chunk c = new Chunk(in, limit, stop, null);
+    c.decode(pos, stop, hist, hlen);
+    if(c.err != null){
+      throw new GZIPException(c.err);
+    }
+    return c;
+  }
+
+  // Decodes from bit 'from' to the first dynamic block at or after bit
+  // 'stop', looking for a block to start at unless 'first'.
+  private CompletableFuture<Chunk> speculate(byte[] in, int limit,
+                                             long from, long stop,
+                                             boolean first, AtomicBoolean abort){
+    return CompletableFuture.supplyAsync(() -> {
+        Chunk c = new Chunk(in, limit, stop, abort);
+        if(first){
+          c.decode(from, stop, NO_HISTORY, 0);
+        }
+        else{
+          c.search(from, Math.min(stop, (limit - 8) * 8L));
+        }
+        return c;
+      }, executor);
+  }
+
+  // Returns the offset of the deflate data after the gzip header.
+  private static int header(byte[] in, int off, int len) throws IOException {
+    Inflater inflater = new Inflater(JZlib.W_GZIP);
+    try{
+      inflater.setOutput(in, off, 0);
+      int p = off;
+      do{
+        if(p == off + len){
+          throw new EOFException("Unexpected end of gzip input");
+        }
+        inflater.setInput(in, p++, 1, false);
+        if(inflater.inflate(Z_NO_FLUSH) != Z_OK){
+          throw new GZIPException(inflater.msg);
+        }
+      }
+      while(inflater.istate.inParsingHeader());
+      return p;
+    }
+    finally{
+      inflater.end();
+    }
+  }
+
+  private static void trailer(byte[] in, int p, int end,
+                              long crc, long total) throws IOException {
+    if(p + 8 > end){
+      throw new EOFException("Unexpected end of gzip input");
+    }
+    if(p + 8 != end){
+      throw new GZIPException("trailing data after gzip member");
+    }
+    long v = (in[p]&0xffL) | (in[p+1]&0xffL)<<8 |
+             (in[p+2]&0xffL)<<16 | (in[p+3]&0xffL)<<24;
+    if(v != crc){
+      throw new GZIPException("incorrect data check");
+    }
+    v = (in[p+4]&0xffL) | (in[p+5]&0xffL)<<8 |
+        (in[p+6]&0xffL)<<16 | (in[p+7]&0xffL)<<24;
+    if(v != (total & 0xffffffffL)){
+      throw new GZIPException("incorrect length check");
+    }
+  }
+
+  private static long sequential(byte[] in, int off, int len,
+                                 OutputStream out) throws IOException {
+    Inflater inflater = new Inflater(JZlib.W_GZIP);
+    byte[] buf = new byte[1<<16];
+    try{
+      inflater.setInput(in, off, len, false);
+      int err;
+      do{
+        inflater.setOutput(buf, 0, buf.length);
+        err = inflater.inflate(Z_NO_FLUSH);
+        if(err == Z_BUF_ERROR){
+          throw new EOFException("Unexpected end of gzip input");
+        }
+        if(err != Z_OK && err != Z_STREAM_END){
+          throw new GZIPException(inflater.msg);
+        }
+        out.write(buf, 0, inflater.next_out_index);
+      }
+      while(err != Z_STREAM_END);
+      if(inflater.avail_in != 0){
+        throw new GZIPException("trailing data after gzip member");
+      }
+      return inflater.total_out;
+    }
+    finally{
+      inflater.end();
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> f) throws IOException {
+    try{
+      return f.join();
+    }
+    catch(CompletionException e){
+      Throwable t = e.getCause();
+      if(t instanceof IOException)
+        throw (IOException)t;
+      if(t instanceof RuntimeException)
+        throw (RuntimeException)t;
+      if(t instanceof Error)
+        throw (Error)t;
+      throw e;
+    }
+  }
+
+  // A range's output once its placeholders are filled in.
+  static final private class Part {
+    final byte[] data;
+    final long crc;
+
+    Part(byte[] data){
+      this.data = data;
+      CRC32 c = new CRC32();
+      c.update(data, 0, data.length);
+      this.crc = c.getValue();
+    }
+  }
+
+  // thrown when decoding runs off the end of the input
+  @SuppressWarnings("serial")
+  static final private class EndOfInput extends Exception {
+    EndOfInput(){ super(null, null, false, false); }
+  }
+  static final private EndOfInput END_OF_INPUT = new EndOfInput();
+
+  static final private VarHandle LONG_LE =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  /**
+   * Decodes one range.  The output is kept as chars after WSIZE chars of
+   * history: a byte, or 256+i for byte i of a history not known yet.
+   */
+  static final private class Chunk {
+    final byte[] in;
+    final int limit;              // end of the input
+    final long stop;              // bit the range is to be decoded to
+    final AtomicBoolean abort;    // set when the output is not wanted
+
+    char[] out;
+    int n;                        // end of the output in out
+    int lo;                       // start of the usable history in out
+    long start = -1;              // bit the range was decoded from
+    long end;                     // bit it was decoded to
+    boolean last;                 // it ends with the final block
+    String err;
+
+    private long hold;            // bit buffer
+    private int bits;             // number of valid bits in hold
+    private int next;             // next input byte
+
+    private final InfTree tree = new InfTree();
+    private final int[] hufts = new int[InfTree.ENOUGH];
+    private final int[] btree = new int[1<<7];
+    private final int[] lens = new int[320];
+    private final ZStream z = new ZStream();   // receives InfTree's messages
+
+    Chunk(byte[] in, int limit, long stop, AtomicBoolean abort){
+      this.in = in;
+      this.limit = limit;
+      this.stop = stop;
+      this.abort = abort;
+    }
+
+    private boolean aborted(){
+      return abort != null && abort.get();
+    }
+
+    // Decodes from the first bit in [from, to) at which decoding up to
+    // the first dynamic block at or after 'to' goes without an error.
+    void search(long from, long to){
+      for(long pos = from; pos < to; pos++){
+        int p = (int)(pos >>> 3);
+        if(p + 8 > limit || aborted()){
+          break;
+        }
+        // BFINAL, BTYPE 2, HLIT and HDIST no more than 29
+        int t = (int)((long)LONG_LE.get(in, p) >>> (pos & 7));
+        if((t & 6) != 4 || (t & 0xf8) > 29<<3 || (t & 0x1f00) > 29<<8){
+          continue;
+        }
+        seek(pos + 3);
+        try{
+          if(table() != Z_OK){
+            continue;
+          }
+        }
+        catch(EndOfInput e){
+          break;
+        }
+        decode(pos, to, null, 0);
+        if(err == null){
+          return;
+        }
+      }
+      start = -1;
+      err = "no block found";
+    }
+
+    // Decodes from bit 'pos' to the end of the stream or to the first
+    // dynamic block at or after bit 'stop', or to the first block after
+    // MAX_OUT bytes of output.  If hist is null, the history before pos
+    // is not known.
+    void decode(long pos, long stop, byte[] hist, int hlen){
+      start = pos;
+      err = null;
+      last = false;
+      if(out == null){
+        out = new char[WSIZE + 4 * (1<<16)];
+      }
+      if(hist == null){
+        for(int i = 0; i < WSIZE; i++){
+          out[i] = (char)(256 + i);
+        }
+        lo = 0;
+      }
+      else{
+        for(int i = WSIZE - hlen; i < WSIZE; i++){
+          out[i] = (char)(hist[i] & 0xff);
+        }
+        lo = WSIZE - hlen;
+      }
+      n = WSIZE;
+      seek(pos);
+
+      try{
+        while(true){
+          need(3);
+          long at = position();
+          int t = (int)hold & 7;
+          if(at != pos &&
+             (at >= stop && (t & 6) == 4 || n - WSIZE >= MAX_OUT)){
+            end = at;
+            return;
+          }
+          if(aborted()){
+            err = "aborted";
+            return;
+          }
+          drop(3);
+          last = (t & 1) != 0;
+
+          int r;
+          switch(t >>> 1){
+          case 0:
+            r = stored();
+            break;
+          case 1:
+            r = codes(InfTree.fixed_tl, 0, InfTree.fixed_bl,
+                      InfTree.fixed_td, 0, InfTree.fixed_bd);
+            break;
+          case 2:
+            r = table();
+            if(r == Z_OK){
+              r = codes(hufts, tree.tl, tree.bl, hufts, tree.td, tree.bd);
+            }
+            break;
+          default:
+            err = "invalid block type";
+            return;
+          }
+          if(r != Z_OK){
+            if(err == null){
+              err = z.msg;
+            }
+            return;
+          }
+          if(position() > limit * 8L){
+            throw END_OF_INPUT;
+          }
+          if(last){
+            end = position();
+            return;
+          }
+        }
+      }
+      catch(EndOfInput e){
+        err = "unexpected end of stream";
+      }
+    }
+
+    // Fills in the placeholders from the history before the range.
+    Part resolve(byte[] hist, int hlen) throws GZIPException {
+      byte[] data = new byte[n - WSIZE];
+      fill(hist, hlen, WSIZE, n, data, 0);
+      return new Part(data);
+    }
+
+    // Returns the last WSIZE bytes of output up to the end of the range.
+    byte[] history(byte[] hist, int hlen) throws GZIPException {
+      byte[] h = new byte[WSIZE];
+      int len = n - WSIZE;
+      if(len >= WSIZE){
+        fill(hist, hlen, n - WSIZE, n, h, 0);
+      }
+      else{
+        System.arraycopy(hist, len, h, 0, WSIZE - len);
+        fill(hist, hlen, WSIZE, n, h, WSIZE - len);
+      }
+      return h;
+    }
+
+    private void fill(byte[] hist, int hlen, int from, int to,
+                      byte[] dst, int d) throws GZIPException {
+      char[] o = out;
+      int min = 256 + WSIZE - hlen;
+      for(int i = from; i < to; i++){
+        int c = o[i];
+        if(c >= 256){
+          if(c < min){
+            throw new GZIPException("invalid distance too far back");
+          }
+          c = hist[c - 256];
+        }
+        dst[d++] = (byte)c;
+      }
+    }
+
+    private void seek(long pos){
+      next = (int)(pos >>> 3);
+      hold = 0;
+      bits = 0;
+      int s = (int)(pos & 7);
+      if(s != 0){
+        hold = (in[next++] & 0xff) >>> s;
+        bits = 8 - s;
+      }
+    }
+
+    private long position(){
+      return next * 8L - bits;
+    }
+
+    // Loads at least 56 bits, padding the input with zeros.
+    private void refill() throws EndOfInput {
+      if(next + 8 <= limit){
+        hold |= (long)LONG_LE.get(in, next) << bits;
+        next += (63 - bits) >>> 3;
+        bits |= 56;
+        return;
+      }
+      if(next >= limit + 8){
+        throw END_OF_INPUT;
+      }
+      while(bits <= 56){
+        if(next < limit){
+          hold |= (in[next] & 0xffL) << bits;
+        }
+        next++;
+        bits += 8;
+      }
+    }
+
+    private void need(int n) throws EndOfInput {
+      if(bits < n){
+        refill();
+      }
+    }
+
+    private void drop(int n){
+      hold >>>= n;
+      bits -= n;
+    }
+
+    private void room(int len){
+      if(n + len > out.length){
+        out = Arrays.copyOf(out, Math.max(n + len, out.length * 2));
+      }
+    }
+
+    private int stored() throws EndOfInput {
+      drop(bits & 7);
+      need(32);
+      int len = (int)hold & 0xffff;
+      if(len != (~(int)(hold >>> 16) & 0xffff)){
+        err = "invalid stored block lengths";
+        return Z_DATA_ERROR;
+      }
+      drop(32);
+      room(len);
+      while(len > 0 && bits > 0){
+        out[n++] = (char)(hold & 0xff);
+        drop(8);
+        len--;
+      }
+      if(bits == 0){
+        hold = 0;
+      }
+      if(len > limit - next){
+        throw END_OF_INPUT;
+      }
+      for(int i = 0; i < len; i++){
+        out[n++] = (char)(in[next++] & 0xff);
+      }
+      return Z_OK;
+    }
+
+    private int table() throws EndOfInput {
+      need(14);
+      int t = (int)hold & 0x3fff;
+      drop(14);
+      if((t & 0x1f) > 29 || ((t >> 5) & 0x1f) > 29){
+        err = "too many length or distance symbols";
+        return Z_DATA_ERROR;
+      }
+      int nl = 257 + (t & 0x1f);
+      int nd = 1 + ((t >> 5) & 0x1f);
+
+      int ncode = 4 + (t >>> 10);
+      for(int i = 0; i < 19; i++){
+        lens[InfBlocks.border[i]] = 0;
+      }
+      for(int i = 0; i < ncode; i++){
+        need(3);
+        lens[InfBlocks.border[i]] = (int)hold & 7;
+        drop(3);
+      }
+      int r = tree.inflate_trees_bits(lens, btree, z);
+      if(r != Z_OK){
+        return r;
+      }
+
+      int bm = (1 << tree.bb) - 1;
+      int i = 0;
+      while(i < nl + nd){
+        need(7 + 7);
+        int e = btree[(int)hold & bm];
+        drop(InfTree.bits(e));
+        int c = InfTree.value(e);
+        if(c < 16){
+          lens[i++] = c;
+          continue;
+        }
+        e = c == 18 ? 7 : c - 14;
+        int j = (c == 18 ? 11 : 3) + ((int)hold & ((1 << e) - 1));
+        drop(e);
+        if(i + j > nl + nd || (c == 16 && i < 1)){
+          err = "invalid bit length repeat";
+          return Z_DATA_ERROR;
+        }
+        c = c == 16 ? lens[i-1] : 0;
+        do{
+          lens[i++] = c;
+        }
+        while(--j != 0);
+      }
+      if(lens[256] == 0){
+        err = "invalid code -- missing end-of-block";
+        return Z_DATA_ERROR;
+      }
+      return tree.inflate_trees_dynamic(nl, nd, lens, hufts, z);
+    }
+
+    // Decodes literals and matches up to the end of the block.
+    private int codes(int[] lt, int lti, int lb, int[] dt, int dti, int db)
+      throws EndOfInput {
+      int ml = (1 << lb) - 1;
+      int md = (1 << db) - 1;
+      int r;
+
+      loop:
+      while(true){
+        if(n > out.length - 258){
+          room(258);
+        }
+        if(bits < 48){
+          refill();
+        }
+        long b = hold;
+        int k = bits;
+        char[] o = out;
+        int q = n;
+
+        int ti = lti + ((int)b & ml);
+        int t = lt[ti];
+        while(true){
+          b >>>= t & 0xff; k -= t & 0xff;
+          int e = (t >>> 8) & 0xff;
+          if(e == 0){
+            o[q++] = (char)(t >>> 16);
+            break;
+          }
+          if((e & 16) != 0){
+            e &= 15;
+            int c = (t >>> 16) + ((int)b & ((1 << e) - 1));
+            b >>>= e; k -= e;
+
+            if(dti < 0){
+              err = "invalid distance code";
+              r = Z_DATA_ERROR;
+              break loop;
+            }
+            ti = dti + ((int)b & md);
+            t = dt[ti];
+            int d;
+            while(true){
+              b >>>= t & 0xff; k -= t & 0xff;
+              e = (t >>> 8) & 0xff;
+              if((e & 16) != 0){
+                e &= 15;
+                d = (t >>> 16) + ((int)b & ((1 << e) - 1));
+                b >>>= e; k -= e;
+                break;
+              }
+              if((e & 64) == 0){
+                ti += (t >>> 16) + ((int)b & ((1 << e) - 1));
+                t = dt[ti];
+                continue;
+              }
+              err = "invalid distance code";
+              r = Z_DATA_ERROR;
+              break loop;
+            }
+
+            int s = q - d;
+            if(s < lo){
+              err = "invalid distance too far back";
+              r = Z_DATA_ERROR;
+              break loop;
+            }
+            if(d >= c){
+              System.arraycopy(o, s, o, q, c);
+              q += c;
+            }
+            else{
+              do{
+                o[q++] = o[s++];
+              }
+              while(--c != 0);
+            }
+            break;
+          }
+          if((e & 64) == 0){
+            ti += (t >>> 16) + ((int)b & ((1 << e) - 1));
+            t = lt[ti];
+            continue;
+          }
+          if((e & 32) != 0){
+            r = Z_OK;
+          }
+          else{
+            err = "invalid literal/length code";
+            r = Z_DATA_ERROR;
+          }
+          hold = b; bits = k; n = q;
+          break loop;
+        }
+        hold = b; bits = k; n = q;
+      }
+      return r;
+    }
+  }
+}
@@ -0,0 +1,656 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Like InflaterInputStream, but inflates in two stages on two threads.
+ *
+ * The decoder, run by an executor, reads the compressed input and
+ * Huffman-decodes it into tokens: literals, and length/distance pairs
+ * whose copies are left for later.  The reading thread takes the tokens,
+ * resolves the copies against its own 64K window, runs the Adler-32 or
+ * CRC-32 over the output and copies it out.  The tokens are handed over
+ * in blocks through a bounded ring, a single-producer single-consumer
+ * queue on two volatile counters; each side advances only its own
+ * counter and parks only when the ring is full or empty.
+ *
+ * The decoder builds its tables with InfTree, as Inflate does.  Only one
+ * stream (or gzip member) is read, and a stream asking for a preset
+ * dictionary fails.  Errors found by the decoder are reported after the
+ * output decoded before them.
+ */
+public class PipelinedInflaterInputStream extends FilterInputStream {
+
+  static final private int Z_OK=0;
+
+  static final private int TOKENS=1<<13;    // tokens in a block
+  static final private int SLOTS=8;         // must be a power of two
+  static final private int WSIZE=1<<15;
+  static final private int WMASK=(WSIZE<<1)-1;
+
+  protected static final int DEFAULT_BUFSIZE = 8192;
+
+  private static Executor shared;
+
+  private final JZlib.WrapperType wrapperType;
+  private final boolean close_in;
+  private final Executor executor;
+
+  private final int[][] ring = new int[SLOTS][];
+  private final int[] counts = new int[SLOTS];
+  private volatile long head = 0;          // blocks taken by the reader
+  private volatile long tail = 0;          // blocks filled by the decoder
+
+  private volatile Thread reader;
+  private volatile Thread decoder;
+  private volatile boolean closed = false;
+
+  // written by the decoder before the first block, or before 'done'
+  private volatile boolean done = false;
+  private Throwable failure;
+  private int wrap;                        // 0 raw, 1 zlib, 2 gzip
+  private long expected;                   // check value of the trailer
+  private long expected_size;              // ISIZE of a gzip trailer
+  private long total_in;
+
+  // decoder side
+  private final byte[] buf;
+  private int p, n;                        // next byte and end of buf
+  private long bitb;                       // bit buffer
+  private int bitk;                        // bits in bit buffer
+  private int pad;                         // zero bits past the input
+  private long read_in;                    // bytes read into buf
+  private long out;                        // bytes decoded
+  private int[] tok;                       // the block being filled
+  private int cnt;
+  private final InfTree inftree = new InfTree();
+  private final int[] hufts = new int[InfTree.ENOUGH];
+  private final int[] btree = new int[1<<7];
+  private final int[] blens = new int[19];
+  private final int[] lens = new int[288+32];
+  private final ZStream z = new ZStream();  // for InfTree's messages
+  private final CRC32 hcrc = new CRC32();
+  private final byte[] hb = new byte[1];
+
+  // reader side
+  private boolean started = false;
+  private boolean eof = false;
+  private IOException error;
+  private final byte[] window = new byte[WMASK+1];
+  private long rpos;                       // output read from window
+  private long wpos;                       // output resolved into window
+  private long cpos;                       // output run through check
+  private Checksum check;
+  private int[] tokens;                    // the block being resolved
+  private int ti, tn;
+
+  public PipelinedInflaterInputStream(InputStream in) throws IOException {
+    this(in, JZlib.W_ZLIB);
+  }
+
+  public PipelinedInflaterInputStream(InputStream in,
+                                      JZlib.WrapperType wrapperType) throws IOException {
+    this(in, wrapperType, DEFAULT_BUFSIZE, true, null);
+  }
+
+  /**
+   * @param size the size of the input buffer
+   * @param executor runs the decoder; if null, a shared pool of daemon
+   *        threads does
+   */
+  public PipelinedInflaterInputStream(InputStream in,
+                                      JZlib.WrapperType wrapperType,
+                                      int size, boolean close_in,
+                                      Executor executor) throws IOException {
+    super(in);
+    if (in == null || wrapperType == null) {
+      throw new NullPointerException();
+    }
+    else if (size <= 0) {
+      throw new IllegalArgumentException("buffer size must be greater than 0");
+    }
+    this.wrapperType = wrapperType;
+    this.buf = new byte[size];
+    this.close_in = close_in;
+    this.executor = executor == null ? shared() : executor;
+  }
+
+  private static synchronized Executor shared(){
+    if(shared == null){
+      shared = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "jzlib-pipelined-inflater");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return shared;
+  }
+
+  private byte[] byte1 = new byte[1];
+
+  public int read() throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    return read(byte1, 0, 1) == -1 ? -1 : byte1[0] & 0xff;
+  }
+
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    if (b == null) {
+      throw new NullPointerException();
+    }
+    else if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    else if (len == 0) {
+      return 0;
+    }
+
+    if(!fill())
+      return -1;
+    int r = (int)rpos & WMASK;
+    int k = (int)Math.min(len, Math.min(wpos - rpos, window.length - r));
+    System.arraycopy(window, r, b, off, k);
+    rpos += k;
+    return k;
+  }
+
+  public long skip(long n) throws IOException {
+    if (n < 0) {
+      throw new IllegalArgumentException("negative skip length");
+    }
+
+    if (closed) { throw new IOException("Stream closed"); }
+
+    long total = 0;
+    while(total < n && fill()){
+      long k = Math.min(n - total, wpos - rpos);
+      rpos += k;
+      total += k;
+    }
+    return total;
+  }
+
+  public int available() throws IOException {
+    if (closed) { throw new IOException("Stream closed"); }
+    return (int)(wpos - rpos);
+  }
+
+  public void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      LockSupport.unpark(decoder);
+      if (close_in)
+        in.close();
+    }
+  }
+
+  public boolean markSupported() {
+    return false;
+  }
+
+  public synchronized void mark(int readlimit) {
+  }
+
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+
+  /**
+   * Returns the compressed bytes of the stream, once it has been read
+   * to its end.
+   */
+  public long getTotalIn() {
+    return done ? total_in : 0;
+  }
+
+  public long getTotalOut() {
+    return rpos;
+  }
+
+  // Makes sure there is output to read, resolving more tokens if there
+  // is none; returns false at the end of the stream.
+  private boolean fill() throws IOException {
+    reader = Thread.currentThread();
+    if(!started){
+      started = true;
+      executor.execute(this::decode);
+    }
+    while(rpos == wpos){
+      if(error != null)
+        throw error;
+      if(eof)
+        return false;
+      resolve();
+    }
+    return true;
+  }
+
+  // Resolves tokens into the window until WSIZE bytes are waiting to be
+  // read, or the stream ends.  What is not read yet stays within the
+  // window together with the WSIZE bytes of history before it.
+  private void resolve() throws IOException {
+    byte[] w = window;
+    int[] t = tokens;
+    int i = ti, m = tn;
+    long q = wpos;
+    long limit = rpos + WSIZE;
+    while(q < limit){
+      if(i == m){
+        if(!take()){
+          eof = true;
+          break;
+        }
+        t = tokens;
+        i = ti;
+        m = tn;
+        continue;
+      }
+      int c = t[i++];
+      if(c < 256){
+        w[(int)q & WMASK] = (byte)c;
+        q++;
+        continue;
+      }
+      int len = c >>> 16;
+      int d = (int)q & WMASK;
+      int s = (d - (c & 0xffff)) & WMASK;
+      if((c & 0xffff) >= len && d + len <= w.length && s + len <= w.length){
+        System.arraycopy(w, s, w, d, len);
+      }
+      else{
+        for(int j = 0; j < len; j++){
+          w[d] = w[s];
+          d = (d + 1) & WMASK;
+          s = (s + 1) & WMASK;
+        }
+      }
+      q += len;
+    }
+    ti = i;
+    wpos = q;
+
+    if(check != null){
+      while(cpos < q){
+        int c = (int)cpos & WMASK;
+        int k = (int)Math.min(q - cpos, w.length - c);
+        check.update(w, c, k);
+        cpos += k;
+      }
+    }
+    if(eof){
+      try{
+        finish();
+      }
+      catch(IOException e){
+        error = e;
+      }
+    }
+  }
+
+  // Hands the block just resolved back and takes the next one, waiting
+  // for the decoder; returns false once it has finished.
+  private boolean take() throws IOException {
+    long h = head;
+    if(tokens != null){
+      tokens = null;
+      head = ++h;
+      LockSupport.unpark(decoder);
+    }
+    while(tail == h){
+      if(done && tail == h)
+        return false;
+      LockSupport.park(this);
+      if(Thread.interrupted())
+        throw new InterruptedIOException();
+    }
+    if(h == 0){
+      check = wrap == 2 ? new CRC32() : wrap == 1 ? new Adler32() : null;
+    }
+    int s = (int)h & (SLOTS-1);
+    tokens = ring[s];
+    ti = 0;
+    tn = counts[s];
+    return true;
+  }
+
+  // Reports how the decoder finished, and checks the trailer.
+  private void finish() throws IOException {
+    if(failure instanceof IOException)
+      throw (IOException)failure;
+    if(failure != null)
+      throw new IOException(failure);
+    if(wrap != 0 && check == null){
+      check = wrap == 2 ? new CRC32() : new Adler32();
+    }
+    if(check != null && check.getValue() != expected)
+      throw new IOException("incorrect data check");
+    if(wrap == 2 && (wpos & 0xffffffffL) != expected_size)
+      throw new IOException("incorrect length check");
+  }
+
+  // The decoder: runs on the executor until the stream ends, fails, or
+  // is closed.
+  private void decode(){
+    decoder = Thread.currentThread();
+    try{
+      acquire();
+      wrap = header();
+      int last;
+      do{
+        last = bits(1);
+        switch(bits(2)){
+        case 0:
+          stored();
+          break;
+        case 1:
+          codes(InfTree.fixed_tl, 0, InfTree.fixed_bl,
+                InfTree.fixed_td, 0, InfTree.fixed_bd);
+          break;
+        case 2:
+          dynamic();
+          break;
+        default:
+          throw new IOException("invalid block type");
+        }
+      }
+      while(last == 0);
+      trailer();
+    }
+    catch(Throwable t){
+      failure = t;
+    }
+    finally{
+      if(tok != null)
+        publish();
+      decoder = null;
+      done = true;
+      LockSupport.unpark(reader);
+    }
+  }
+
+  // Waits for a free block in the ring and starts filling it.
+  private void acquire() throws IOException {
+    while(tail - head == SLOTS && !closed){
+      LockSupport.park(this);
+    }
+    if(closed)
+      throw new IOException("Stream closed");
+    int s = (int)tail & (SLOTS-1);
+    if(ring[s] == null)
+      ring[s] = new int[TOKENS];
+    tok = ring[s];
+    cnt = 0;
+  }
+
+  private void publish(){
+    counts[(int)tail & (SLOTS-1)] = cnt;
+    tok = null;
+    tail = tail + 1;
+    LockSupport.unpark(reader);
+  }
+
+  private void emit(int token) throws IOException {
+    if(cnt == TOKENS){
+      publish();
+      acquire();
+    }
+    tok[cnt++] = token;
+  }
+
+  private void need(int k) throws IOException {
+    while(bitk < k){
+      if(p == n)
+        refill();
+      bitb |= (buf[p++] & 0xffL) << bitk;
+      bitk += 8;
+    }
+  }
+
+  // Refills buf.  Past the end of the input it supplies zero bytes, so
+  // that a code may be looked up with fewer bits left than the table
+  // takes; using any of them is an error.
+  private void refill() throws IOException {
+    if(closed)
+      throw new IOException("Stream closed");
+    int k = in.read(buf, 0, buf.length);
+    if(k == -1){
+      buf[0] = 0;
+      k = 1;
+      pad += 8;
+    }
+    else{
+      read_in += k;
+    }
+    p = 0;
+    n = k;
+  }
+
+  private void drop(int k) throws IOException {
+    bitb >>>= k;
+    bitk -= k;
+    if(bitk < pad)
+      throw new EOFException("Unexpected end of ZLIB input stream");
+  }
+
+  private int bits(int k) throws IOException {
+    need(k);
+    int v = (int)bitb & ((1<<k)-1);
+    drop(k);
+    return v;
+  }
+
+  private int header() throws IOException {
+    if(wrapperType == JZlib.W_NONE)
+      return 0;
+    if(wrapperType == JZlib.W_ANY){
+      need(16);
+      int h = (int)bitb & 0xffff;
+      if(h == 0x8b1f)
+        return gzip_header();
+      if((h & 0xf) != 8 || ((h & 0xff) << 8 | h >>> 8) % 31 != 0)
+        return 0;
+    }
+    else if(wrapperType == JZlib.W_GZIP){
+      return gzip_header();
+    }
+
+    int cmf = bits(8);
+    int flg = bits(8);
+    if(((cmf << 8) + flg) % 31 != 0)
+      throw new IOException("incorrect header check");
+    if((cmf & 0xf) != 8)
+      throw new IOException("unknown compression method");
+    if((cmf >> 4) + 8 > 15)
+      throw new IOException("invalid window size");
+    if((flg & 0x20) != 0)
+      throw new IOException("need dictionary");
+    return 1;
+  }
+
+  private int gzip_header() throws IOException {
+    hcrc.reset();
+    if(hbyte() != 0x1f || hbyte() != 0x8b)
+      throw new IOException("incorrect header check");
+    if(hbyte() != 8)
+      throw new IOException("unknown compression method");
+    int flags = hbyte();
+    if((flags & 0xe0) != 0)
+      throw new IOException("unknown header flags set");
+    for(int i = 0; i < 6; i++)
+      hbyte();
+    if((flags & 4) != 0){
+      int xlen = hbyte() | hbyte() << 8;
+      while(xlen-- > 0)
+        hbyte();
+    }
+    if((flags & 8) != 0)
+      while(hbyte() != 0);
+    if((flags & 16) != 0)
+      while(hbyte() != 0);
+    if((flags & 2) != 0){
+      int v = (int)hcrc.getValue() & 0xffff;
+      if(bits(16) != v)
+        throw new IOException("header crc mismatch");
+    }
+    return 2;
+  }
+
+  private int hbyte() throws IOException {
+    int b = bits(8);
+    hb[0] = (byte)b;
+    hcrc.update(hb, 0, 1);
+    return b;
+  }
+
+  private void trailer() throws IOException {
+    drop(bitk & 7);
+    if(wrap == 1){
+      expected = ((long)bits(8) << 24 | bits(8) << 16 | bits(8) << 8 | bits(8));
+    }
+    else if(wrap == 2){
+      expected = bits(16) | (long)bits(16) << 16;
+      expected_size = bits(16) | (long)bits(16) << 16;
+    }
+    total_in = read_in - (n - p) - bitk / 8;
+  }
+
+  private void stored() throws IOException {
+    drop(bitk & 7);
+    int len = bits(16);
+    if(len != (~bits(16) & 0xffff))
+      throw new IOException("invalid stored block lengths");
+    out += len;
+    while(len-- > 0)
+      emit(bits(8));
+  }
+
+  private void dynamic() throws IOException {
+    int nl = 257 + bits(5);
+    int nd = 1 + bits(5);
+    int nc = 4 + bits(4);
+    if(nl > 286 || nd > 30)
+      throw new IOException("too many length or distance symbols");
+    for(int i = 0; i < 19; i++)
+      blens[InfBlocks.border[i]] = i < nc ? bits(3) : 0;
+    if(inftree.inflate_trees_bits(blens, btree, z) != Z_OK)
+      throw new IOException(z.msg);
+
+    int bb = inftree.bb;
+    int i = 0;
+    while(i < nl + nd){
+      need(bb);
+      int h = btree[(int)bitb & ((1<<bb)-1)];
+      drop(InfTree.bits(h));
+      int v = InfTree.value(h);
+      if(v < 16){
+        lens[i++] = v;
+        continue;
+      }
+      int j = v == 18 ? 11 + bits(7) : v == 17 ? 3 + bits(3) : 3 + bits(2);
+      if(i + j > nl + nd || (v == 16 && i < 1))
+        throw new IOException("invalid bit length repeat");
+      v = v == 16 ? lens[i-1] : 0;
+      while(j-- > 0)
+        lens[i++] = v;
+    }
+
+    if(inftree.inflate_trees_dynamic(nl, nd, lens, hufts, z) != Z_OK)
+      throw new IOException(z.msg);
+    codes(hufts, inftree.tl, inftree.bl, hufts, inftree.td, inftree.bd);
+  }
+
+  // Decodes the codes of a block into tokens: a literal as itself, a
+  // copy as its length in the upper and its distance in the lower 16
+  // bits.  A table entry with an operation of 1..15 links a sub-table
+  // indexed by that many more bits.
+  private void codes(int[] tl, int tl_index, int bl,
+                     int[] td, int td_index, int bd) throws IOException {
+    int lm = (1<<bl)-1;
+    int dm = (1<<bd)-1;
+    while(true){
+      need(bl);
+      int x = tl_index + ((int)bitb & lm);
+      int e = tl[x];
+      int op = InfTree.op(e);
+      if(op != 0 && op < 16){
+        drop(InfTree.bits(e));
+        need(op);
+        x += InfTree.value(e) + ((int)bitb & ((1<<op)-1));
+        e = tl[x];
+        op = InfTree.op(e);
+      }
+      drop(InfTree.bits(e));
+
+      if(op == 0){
+        emit(InfTree.value(e));
+        out++;
+      }
+      else if((op & 16) != 0){
+        int len = InfTree.value(e) + bits(op & 15);
+        if(td_index < 0)
+          throw new IOException("invalid distance code");
+        need(bd);
+        x = td_index + ((int)bitb & dm);
+        e = td[x];
+        op = InfTree.op(e);
+        if(op != 0 && op < 16){
+          drop(InfTree.bits(e));
+          need(op);
+          x += InfTree.value(e) + ((int)bitb & ((1<<op)-1));
+          e = td[x];
+          op = InfTree.op(e);
+        }
+        drop(InfTree.bits(e));
+        if((op & 16) == 0)
+          throw new IOException("invalid distance code");
+        int dist = InfTree.value(e) + bits(op & 15);
+        if(dist > out)
+          throw new IOException("invalid distance too far back");
+        emit(len << 16 | dist);
+        out += len;
+      }
+      else if((op & 32) != 0){
+        return;
+      }
+      else{
+        throw new IOException("invalid literal/length code");
+      }
+    }
+  }
+}
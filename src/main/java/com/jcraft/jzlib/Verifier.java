@@ -0,0 +1,249 @@
+/* -*-mode:java; c-basic-offset:2; indent-tabs-mode:nil -*- */
+/*
+Copyright (c) 2011 ymnk, JCraft,Inc. All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+  1. Redistributions of source code must retain the above copyright notice,
+     this list of conditions and the following disclaimer.
+
+  2. Redistributions in binary form must reproduce the above copyright 
+     notice, this list of conditions and the following disclaimer in 
+     the documentation and/or other materials provided with the distribution.
+
+  3. The names of the authors may not be used to endorse or promote products
+     derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL JCRAFT,
+INC. OR ANY CONTRIBUTORS TO THIS SOFTWARE BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.jcraft.jzlib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Tests gzip and zlib data for integrity, as "gzip -t" does.  The data
+ * is inflated into the window only and never copied out; the check
+ * values and, for gzip, the lengths in the trailers are compared as
+ * usual.  Every member of a multi-member gzip file is tested; zero bytes
+ * after the last one are allowed, as by gzip, anything else is not.
+ */
+public final class Verifier {
+
+  static final private int Z_OK=0;
+  static final private int Z_STREAM_END=1;
+  static final private int Z_NEED_DICT=2;
+  static final private int Z_BUF_ERROR=-5;
+
+  static final private int BUFSIZE=1<<16;
+
+  private Verifier(){
+  }
+
+  public static final class Result {
+    private final String message;
+    private final long offset;
+    private final long compressed;
+    private final long uncompressed;
+    private final int members;
+
+    Result(String message, long offset,
+           long compressed, long uncompressed, int members){
+      this.message = message;
+      this.offset = offset;
+      this.compressed = compressed;
+      this.uncompressed = uncompressed;
+      this.members = members;
+    }
+
+    public boolean isOk(){
+      return message == null;
+    }
+
+    /**
+     * @return why the data is bad, or null if it is not
+     */
+    public String getMessage(){
+      return message;
+    }
+
+    /**
+     * @return how far into the compressed data the error was found,
+     *         or -1 if there is none
+     */
+    public long getFailureOffset(){
+      return offset;
+    }
+
+    /**
+     * @return the compressed bytes read
+     */
+    public long getCompressedSize(){
+      return compressed;
+    }
+
+    /**
+     * @return the uncompressed bytes, up to any error
+     */
+    public long getUncompressedSize(){
+      return uncompressed;
+    }
+
+    /**
+     * @return the gzip members or zlib streams tested
+     */
+    public int getMembers(){
+      return members;
+    }
+
+    public String toString(){
+      return (message == null ? "OK" : message+" at "+offset)+
+        ", "+compressed+" -> "+uncompressed+" bytes in "+members+
+        (members == 1 ? " stream" : " streams");
+    }
+  }
+
+  /**
+   * Tests a gzip or zlib stream.  Bad data is reported in the Result;
+   * an IOException from the stream itself is thrown.
+   */
+  public static Result verify(InputStream in) throws IOException {
+    byte[] buf = new byte[BUFSIZE];
+    int len = 0;                // input in buf
+    long done = 0;              // input before buf
+    long out = 0;
+    int members = 0;
+    Inflater inflater = null;
+    try{
+      while(true){
+        // the start of a stream, or what follows the last one
+        while(len < 2){
+          int n = in.read(buf, len, buf.length - len);
+          if(n < 0)
+            break;
+          len += n;
+        }
+        boolean gzip = len >= 2 && buf[0] == 31 && buf[1] == -117;
+        if(members > 0 && !gzip){
+          return trailer(in, buf, len, done, out, members);
+        }
+        if(len == 0){
+          return new Result("unexpected end of stream", done, done, out, members);
+        }
+
+        if(inflater == null)
+          inflater = new Inflater(gzip ? JZlib.W_GZIP : JZlib.W_ZLIB);
+        else
+          inflater.reset();
+        members++;
+        inflater.setInput(buf, 0, len, false);
+
+        int err;
+        do{
+          if(inflater.avail_in == 0){
+            done += len;
+            len = in.read(buf, 0, buf.length);
+            if(len < 0){
+              len = 0;
+              return new Result("unexpected end of stream", done, done,
+                                out + inflater.total_out, members);
+            }
+            inflater.setInput(buf, 0, len, false);
+          }
+          err = inflater.discard(1<<30);
+        }
+        while(err == Z_OK || err == Z_BUF_ERROR && inflater.avail_in == 0);
+
+        out += inflater.total_out;
+        long at = done + inflater.next_in_index;
+        if(err != Z_STREAM_END){
+          String msg = err == Z_NEED_DICT ? "need dictionary" :
+            inflater.msg != null ? inflater.msg : "error "+err;
+          return new Result(msg, at, at, out, members);
+        }
+
+        // keep what follows the stream at the start of buf
+        len -= inflater.next_in_index;
+        System.arraycopy(buf, inflater.next_in_index, buf, 0, len);
+        done = at;
+        if(!gzip){
+          return trailer(in, buf, len, done, out, members);
+        }
+      }
+    }
+    finally{
+      if(inflater != null)
+        inflater.end();
+    }
+  }
+
+  // Checks that only zeros follow the last stream, from buf[0] on.
+  private static Result trailer(InputStream in, byte[] buf, int len,
+                                long done, long out, int members) throws IOException {
+    while(len > 0){
+      for(int i = 0; i < len; i++){
+        if(buf[i] != 0){
+          return new Result("trailing garbage", done + i, done + i, out, members);
+        }
+      }
+      done += len;
+      len = Math.max(0, in.read(buf, 0, buf.length));
+    }
+    return new Result(null, -1, done, out, members);
+  }
+
+  /**
+   * Tests the gzip or zlib file from its current position on.
+   */
+  public static Result verify(FileChannel file) throws IOException {
+    return verify(Channels.newInputStream(file));
+  }
+
+  /**
+   * Tests many files, up to as many at once as the executor runs.  An
+   * IOException reading a file is reported as its Result.
+   *
+   * @return the results, in the order of the files
+   */
+  public static Map<Path, Result> verify(Collection<Path> files,
+                                         Executor executor) {
+    List<CompletableFuture<Result>> results = new ArrayList<>();
+    for(Path file : files){
+      results.add(CompletableFuture.supplyAsync(() -> {
+            try(FileChannel ch = FileChannel.open(file)){
+              return verify(ch);
+            }
+            catch(IOException e){
+              return new Result(e.toString(), -1, 0, 0, 0);
+            }
+          }, executor));
+    }
+    Map<Path, Result> map = new LinkedHashMap<>();
+    int i = 0;
+    for(Path file : files){
+      map.put(file, results.get(i++).join());
+    }
+    return map;
+  }
+}
@@ -94,11 +94,18 @@ public class ZInputStream extends FilterInputStream {
   }
 
   public long skip(long n) throws IOException {
-    int len=512;
-    if(n<len)
-      len=(int)n;
-    byte[] tmp=new byte[len];
-    return((long)read(tmp));
+    if(!compress)
+      return iis.skip(n);
+    if(n<=0)
+      return 0;
+    long total=0;
+    byte[] tmp=new byte[(int)Math.min(n, 8192)];
+    while(total<n){
+      int i=read(tmp, 0, (int)Math.min(n-total, tmp.length));
+      if(i<=0) break;
+      total+=i;
+    }
+    return total;
   }
 
   public int getFlushMode() {
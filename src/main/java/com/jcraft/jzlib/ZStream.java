@@ -34,6 +34,8 @@ EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package com.jcraft.jzlib;
 
+import java.nio.ByteBuffer;
+
 /**
  * ZStream
  *
@@ -124,7 +126,7 @@ public class ZStream{
 
   public int inflate(int f){
     if(istate==null) return Z_STREAM_ERROR;
-    return istate.inflate(f);
+    return buffers() ? transfer(f, false) : istate.inflate(f);
   }
   public int inflateEnd(){
     if(istate==null) return Z_STREAM_ERROR;
@@ -189,7 +191,7 @@ public class ZStream{
     if(dstate==null){
       return Z_STREAM_ERROR;
     }
-    return dstate.deflate(flush);
+    return buffers() ? transfer(flush, true) : dstate.deflate(flush);
   }
   public int deflateEnd(){
     if(dstate==null) return Z_STREAM_ERROR;
@@ -268,6 +270,8 @@ public class ZStream{
   public void free(){
     next_in=null;
     next_out=null;
+    in_buf=null;
+    out_bufs=null;
     msg=null;
   }
 
@@ -276,6 +280,7 @@ public class ZStream{
   }
 
   public void setOutput(byte[] buf, int off, int len){
+    out_bufs = null;
     next_out = buf;
     next_out_index = off;
     avail_out = len;
@@ -290,6 +295,15 @@ public class ZStream{
   }
 
   public void setInput(byte[] buf, int off, int len, boolean append){
+    if(in_buf!=null){
+      // carry on from what is left in the ByteBuffer
+      ByteBuffer b=in_buf;
+      in_buf=null;
+      next_in=new byte[append ? b.remaining() : 0];
+      b.get(next_in);
+      next_in_index=0;
+      avail_in=next_in.length;
+    }
     if(len<=0 && append && next_in!=null) return;
 
     if(avail_in>0 && append){  
@@ -307,11 +321,175 @@ public class ZStream{
     }
   }
 
+  /**
+   * Takes the input from the bytes remaining in buf, a heap or a direct
+   * buffer, until the input is set again.  Every deflate() or inflate()
+   * moves its position past the bytes consumed, and avail_in follows its
+   * remaining().  A heap buffer is read in place; a direct one is copied
+   * in steps of 64K, as the engine works on byte arrays.
+   */
+  public void setInput(ByteBuffer buf){
+    if(buf==null) throw new NullPointerException();
+    in_buf=buf;
+    sync();
+  }
+
+  /**
+   * Makes the output go to the space remaining in buf; see
+   * setOutput(ByteBuffer...).
+   */
+  public void setOutput(ByteBuffer buf){
+    if(buf==null) throw new NullPointerException();
+    setOutput(new ByteBuffer[]{buf});
+  }
+
+  /**
+   * Makes the output go to the space remaining in bufs, filling them in
+   * turn, until the output is set again.  Every deflate() or inflate()
+   * moves their positions past the bytes written, and avail_out follows
+   * the total of their remaining().  Heap buffers are written in place;
+   * output for a direct one is copied in steps of 64K.
+   */
+  public void setOutput(ByteBuffer... bufs){
+    for(ByteBuffer b : bufs){
+      if(b==null) throw new NullPointerException();
+    }
+    out_bufs=bufs.clone();
+    out_cur=0;
+    sync();
+  }
+
+  private static final int STAGE=1<<16;
+  private static final byte[] EMPTY=new byte[0];
+
+  private ByteBuffer in_buf;       // set by setInput(ByteBuffer)
+  private ByteBuffer[] out_bufs;   // set by setOutput(ByteBuffer...)
+  private int out_cur;             // the first of them with room left
+  private byte[] in_stage;         // copies for direct buffers
+  private byte[] out_stage;
+
+  boolean buffers(){
+    return in_buf!=null || out_bufs!=null;
+  }
+
+  // Deflates or inflates from and to the ByteBuffers, over as many calls
+  // to the engine as it takes to use up the input or the room, or until
+  // no more progress is made.
+  int transfer(int flush, boolean deflate){
+    int r;
+    boolean progress=false;
+    while(true){
+      sync();
+      int staged_in=map_in();
+      int staged_out=map_out();
+      long in=total_in, out=total_out;
+
+      if(deflate){
+        // only the last of the staged input is to be flushed
+        boolean more=staged_in>=0 && staged_in<in_buf.remaining();
+        r = dstate.deflate(more ? Z_NO_FLUSH : flush);
+      }
+      else{
+        r = istate.inflate(flush);
+      }
+
+      boolean full=avail_out==0;
+      int n_in=(int)(total_in-in);
+      int n_out=(int)(total_out-out);
+      unmap(staged_in, staged_out, n_in, n_out);
+      sync();
+      if(n_in==0 && n_out==0)
+        break;
+      progress=true;
+      if(r!=Z_OK || avail_out==0 || avail_in==0 && !full)
+        break;
+    }
+    return r==Z_BUF_ERROR && progress ? Z_OK : r;
+  }
+
+  // Points next_in at the input buffer; returns the bytes staged, or -1.
+  private int map_in(){
+    if(in_buf==null || in_buf.hasArray())
+      return -1;
+    if(in_stage==null)
+      in_stage=new byte[STAGE];
+    int n=Math.min(in_buf.remaining(), STAGE);
+    in_buf.duplicate().get(in_stage, 0, n);
+    next_in=in_stage;
+    next_in_index=0;
+    avail_in=n;
+    return n;
+  }
+
+  // Points next_out at the current output buffer; returns the room
+  // staged, or -1.
+  private int map_out(){
+    if(out_bufs==null || out_cur==out_bufs.length)
+      return -1;
+    ByteBuffer b=out_bufs[out_cur];
+    if(b.hasArray())
+      return -1;
+    if(out_stage==null)
+      out_stage=new byte[STAGE];
+    next_out=out_stage;
+    next_out_index=0;
+    avail_out=Math.min(b.remaining(), STAGE);
+    return avail_out;
+  }
+
+  private void unmap(int staged_in, int staged_out, int n_in, int n_out){
+    if(in_buf!=null){
+      in_buf.position(in_buf.position()+n_in);
+    }
+    if(out_bufs!=null && out_cur<out_bufs.length){
+      ByteBuffer b=out_bufs[out_cur];
+      if(staged_out>=0)
+        b.put(out_stage, 0, n_out);
+      else
+        b.position(b.position()+n_out);
+    }
+  }
+
+  // Makes next_in, avail_in, next_out and avail_out describe the
+  // ByteBuffers, with heap ones mapped in place.
+  private void sync(){
+    if(in_buf!=null){
+      if(in_buf.hasArray()){
+        next_in=in_buf.array();
+        next_in_index=in_buf.arrayOffset()+in_buf.position();
+      }
+      else{
+        next_in=EMPTY;
+        next_in_index=0;
+      }
+      avail_in=in_buf.remaining();
+    }
+    if(out_bufs!=null){
+      while(out_cur<out_bufs.length && !out_bufs[out_cur].hasRemaining())
+        out_cur++;
+      long room=0;
+      for(int i=out_cur; i<out_bufs.length; i++)
+        room+=out_bufs[i].remaining();
+      if(out_cur<out_bufs.length && out_bufs[out_cur].hasArray()){
+        ByteBuffer b=out_bufs[out_cur];
+        next_out=b.array();
+        next_out_index=b.arrayOffset()+b.position();
+        avail_out=b.remaining();
+      }
+      else{
+        next_out=EMPTY;
+        next_out_index=0;
+        avail_out=(int)Math.min(room, Integer.MAX_VALUE);
+      }
+    }
+  }
+
   public byte[] getNextIn(){
     return next_in;
   }
 
   public void setNextIn(byte[] next_in){
+    in_buf = null;
     this.next_in = next_in;
   }
 
@@ -336,6 +514,7 @@ public class ZStream{
   }
 
   public void setNextOut(byte[] next_out){
+    out_bufs = null;
     this.next_out = next_out;
   }
 
@@ -364,6 +543,17 @@ public class ZStream{
     return total_in;
   }
 
+  /**
+   * After deflating, a guess at the type of the input (Z_BINARY or
+   * Z_ASCII).  After inflating with an Inflater, the number of unused
+   * bits in the last input byte, plus 64 if the last block has been
+   * started, plus 128 if the inflater stands at a block boundary, as
+   * zlib reports it for Z_BLOCK.
+   */
+  public int getDataType(){
+    return data_type;
+  }
+
   public String getMessage(){
     return msg;
   }
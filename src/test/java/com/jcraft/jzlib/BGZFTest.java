@@ -0,0 +1,155 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BGZFTest {
+
+    @TempDir
+    Path dir;
+
+    private static ExecutorService executor;
+
+    @BeforeAll
+    static void start() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterAll
+    static void stop() {
+        executor.shutdown();
+    }
+
+    private static byte[] text(Random r, int size) {
+        var words = new String[]{"chr1 ", "chr2 ", "ACGT", "TTGCA", "60M ", "\t", "\n"};
+        var out = new ByteArrayOutputStream();
+        while (out.size() < size) {
+            out.writeBytes(words[r.nextInt(words.length)].getBytes());
+            if (r.nextInt(4) == 0) {
+                out.writeBytes(Integer.toString(r.nextInt(100000)).getBytes());
+            }
+        }
+        return Arrays.copyOf(out.toByteArray(), size);
+    }
+
+    @Test
+    public void writeAndReadBlocks() throws Exception {
+        var data = text(new Random(1), 1 << 20);
+
+        var out = new ByteArrayOutputStream();
+        try (var bgzf = new BGZFOutputStream(out)) {
+            bgzf.write(data, 0, 1000);
+            bgzf.write(data, 1000, data.length - 1000);
+        }
+        var compressed = out.toByteArray();
+        assertArrayEquals(BGZFOutputStream.EOF_BLOCK,
+            Arrays.copyOfRange(compressed, compressed.length - 28, compressed.length));
+
+        var out2 = new ByteArrayOutputStream();
+        try (var bgzf = new BGZFOutputStream(out2, JZlib.Z_DEFAULT_COMPRESSION, executor, 3, true)) {
+            for (int i = 0; i < data.length; i += 777) {
+                bgzf.write(data, i, Math.min(777, data.length - i));
+            }
+        }
+        assertArrayEquals(compressed, out2.toByteArray());
+
+        var gis = new java.util.zip.GZIPInputStream(new ByteArrayInputStream(compressed));
+        assertArrayEquals(data, gis.readAllBytes());
+        assertArrayEquals(data, new GZIPInputStream(new ByteArrayInputStream(compressed)).readAllBytes());
+
+        assertArrayEquals(data, new BGZFInputStream(new ByteArrayInputStream(compressed)).readAllBytes());
+        var file = dir.resolve("data.gz");
+        Files.write(file, compressed);
+        try (var in = new BGZFInputStream(FileChannel.open(file), executor, 3, true)) {
+            assertArrayEquals(data, in.readAllBytes());
+        }
+    }
+
+    @Test
+    public void seekVirtualOffsets() throws Exception {
+        var r = new Random(2);
+        var data = text(r, 1 << 20);
+        var file = dir.resolve("seek.gz");
+        var offsets = new ArrayList<long[]>();
+        BGZFIndex index;
+        try (var bgzf = new BGZFOutputStream(Files.newOutputStream(file), 6, executor, 2, true)) {
+            for (int i = 0; i < data.length; ) {
+                offsets.add(new long[]{i, bgzf.getVirtualOffset()});
+                var n = Math.min(r.nextInt(100000), data.length - i);
+                bgzf.write(data, i, n);
+                i += n;
+            }
+            bgzf.close();
+            index = bgzf.getIndex();
+        }
+
+        var gzi = new ByteArrayOutputStream();
+        index.write(gzi);
+        var built = new ByteArrayOutputStream();
+        BGZFIndex.build(Files.newInputStream(file)).write(built);
+        assertArrayEquals(gzi.toByteArray(), built.toByteArray());
+        var read = BGZFIndex.read(new ByteArrayInputStream(gzi.toByteArray()));
+        assertEquals(index.size(), read.size());
+
+        for (var ex : new ExecutorService[]{null, executor}) {
+            try (var in = new BGZFInputStream(FileChannel.open(file), ex, 3, true)) {
+                for (int k = offsets.size() - 1; k >= 0; k -= 3) {
+                    var offset = (int) offsets.get(k)[0];
+                    in.seek(offsets.get(k)[1]);
+                    var buf = in.readNBytes(5000);
+                    assertArrayEquals(Arrays.copyOfRange(data, offset, Math.min(offset + 5000, data.length)), buf);
+                }
+                for (int k = 0; k < 20; k++) {
+                    var offset = r.nextInt(data.length);
+                    in.seek(read.getVirtualOffset(offset));
+                    var buf = in.readNBytes(70000);
+                    assertArrayEquals(Arrays.copyOfRange(data, offset, Math.min(offset + 70000, data.length)), buf);
+                }
+                in.seek(0);
+                assertEquals(data[0], in.read());
+            }
+        }
+    }
+
+    @Test
+    public void extraFieldAndBadInput() throws Exception {
+        var out = new ByteArrayOutputStream();
+        var gos = new GZIPOutputStream(out);
+        gos.setExtra(new byte[]{65, 66, 1, 0, 7});
+        gos.write("hello".getBytes());
+        gos.close();
+
+        var gis = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertArrayEquals("hello".getBytes(), gis.readAllBytes());
+        assertArrayEquals(new byte[]{65, 66, 1, 0, 7}, gis.getExtra());
+
+        var e = assertThrows(GZIPException.class,
+            () -> new BGZFInputStream(new ByteArrayInputStream(out.toByteArray())).read());
+        assertEquals("not a BGZF block", e.getMessage());
+
+        out.reset();
+        new GZIPOutputStream(out).close();
+        gis = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(-1, gis.read());
+        assertNull(gis.getExtra());
+    }
+}
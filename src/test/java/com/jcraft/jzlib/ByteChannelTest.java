@@ -0,0 +1,153 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ByteChannelTest {
+
+    private static byte[] data(int size) {
+        var data = TestUtil.randombuf(size);
+        for (int i = 1000; i < data.length; i++) {
+            if (i % 4 != 0) data[i] = data[i - 999];
+        }
+        return data;
+    }
+
+    // takes or gives at most a few bytes a call, and now and then none
+    private static class Trickle implements ReadableByteChannel, WritableByteChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final Random r = new Random(7);
+        byte[] readable = new byte[0];
+        int pos;
+        int zeros;
+
+        public int write(ByteBuffer src) {
+            var n = Math.min(src.remaining(), r.nextInt(3) == 0 ? 0 : r.nextInt(700));
+            if (n == 0) zeros++;
+            var b = new byte[n];
+            src.get(b);
+            written.writeBytes(b);
+            return n;
+        }
+
+        public int read(ByteBuffer dst) {
+            if (pos == readable.length) return -1;
+            var n = Math.min(Math.min(dst.remaining(), readable.length - pos), r.nextInt(3) == 0 ? 0 : r.nextInt(700));
+            if (n == 0) zeros++;
+            dst.put(readable, pos, n);
+            pos += n;
+            return n;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+
+        public void close() {
+        }
+    }
+
+    @Test
+    public void deflateInflateChannels() throws IOException {
+        var data = data(200000);
+        var out = new ByteArrayOutputStream();
+        try (var ch = new DeflaterWritableByteChannel(Channels.newChannel(out))) {
+            var src = ByteBuffer.wrap(data);
+            while (src.hasRemaining()) {
+                ch.write(src.slice().limit(Math.min(src.remaining(), 5000)));
+                src.position(src.position() + Math.min(src.remaining(), 5000));
+            }
+        }
+        var compressed = out.toByteArray();
+
+        var in = new InflaterReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(compressed)));
+        var actual = ByteBuffer.allocateDirect(data.length + 10);
+        while (in.read(actual) != -1) {
+        }
+        assertEquals(data.length, actual.flip().remaining());
+        var b = new byte[data.length];
+        actual.get(b);
+        assertArrayEquals(data, b);
+        assertEquals(compressed.length, in.getTotalIn());
+        in.close();
+        assertThrows(IOException.class, () -> in.read(ByteBuffer.allocate(1)));
+    }
+
+    @Test
+    public void nonBlockingChannelsMakePartialProgress() throws IOException {
+        var data = data(300000);
+        var sink = new Trickle();
+        var ch = new GZIPWritableByteChannel(sink);
+        ch.setName("trickle");
+        ch.setSyncFlush(true);
+        var src = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        var calls = 0;
+        while (src.hasRemaining()) {
+            ch.write(src);
+            calls++;
+        }
+        while (!ch.finish()) {
+            calls++;
+        }
+        var crc = ch.getCRC();
+        ch.close();
+        assertTrue(calls > 1 && sink.zeros > 0);
+
+        var compressed = sink.written.toByteArray();
+        var expected = new java.util.zip.GZIPInputStream(new ByteArrayInputStream(compressed)).readAllBytes();
+        assertArrayEquals(data, expected);
+
+        var source = new Trickle();
+        source.readable = compressed;
+        var in = new GZIPReadableByteChannel(source, 1000, true);
+        var actual = ByteBuffer.allocate(data.length + 1);
+        int n, zeros = 0;
+        while ((n = in.read(actual)) != -1) {
+            if (n == 0) zeros++;
+        }
+        assertTrue(zeros > 0);
+        assertEquals(data.length, actual.position());
+        assertArrayEquals(data, Arrays.copyOf(actual.array(), data.length));
+        assertEquals("trickle", in.getName());
+        assertEquals(crc, in.getCRC());
+    }
+
+    @Test
+    public void gzipMembersAndTruncation() throws IOException {
+        var out = new ByteArrayOutputStream();
+        for (var s : new String[]{"hello, ", "world"}) {
+            var ch = new GZIPWritableByteChannel(Channels.newChannel(out), 100, false);
+            ch.write(ByteBuffer.wrap(s.getBytes()));
+            ch.close();
+        }
+        out.write(new byte[]{1, 2, 3});
+        var compressed = out.toByteArray();
+
+        var in = new GZIPReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(compressed)));
+        var actual = ByteBuffer.allocate(100);
+        while (in.read(actual) != -1) {
+        }
+        assertEquals("hello, world", new String(actual.array(), 0, actual.position()));
+
+        var truncated = Arrays.copyOf(compressed, compressed.length - 10);
+        var in2 = new GZIPReadableByteChannel(Channels.newChannel(new ByteArrayInputStream(truncated)));
+        assertThrows(IOException.class, () -> {
+            while (in2.read(ByteBuffer.allocate(100)) != -1) {
+            }
+        });
+    }
+}
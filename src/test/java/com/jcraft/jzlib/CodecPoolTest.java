@@ -0,0 +1,169 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.jcraft.jzlib.JZlib.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CodecPoolTest {
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        var out = new ByteArrayOutputStream();
+        var buf = new byte[1024];
+        deflater.setInput(data);
+        int err;
+        do {
+            deflater.setOutput(buf);
+            err = deflater.deflate(Z_FINISH);
+            assertTrue(err == Z_OK || err == Z_STREAM_END);
+            out.write(buf, 0, deflater.next_out_index);
+        } while (err != Z_STREAM_END);
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] data) {
+        var out = new ByteArrayOutputStream();
+        var buf = new byte[1024];
+        inflater.setInput(data);
+        int err;
+        do {
+            inflater.setOutput(buf);
+            err = inflater.inflate(Z_NO_FLUSH);
+            assertTrue(err == Z_OK || err == Z_STREAM_END, "err: " + err);
+            out.write(buf, 0, inflater.next_out_index);
+        } while (err != Z_STREAM_END);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void deflaterResetProducesIdenticalStreams() throws GZIPException {
+        var data = "hello, hello, hello, hello!".repeat(100).getBytes(StandardCharsets.UTF_8);
+        var deflater = new Deflater(Z_BEST_COMPRESSION, 15, 8, W_GZIP);
+
+        var first = deflate(deflater, data);
+        assertEquals(Z_OK, deflater.reset());
+        assertFalse(deflater.finished());
+        var second = deflate(deflater, data);
+
+        assertArrayEquals(first, second);
+        assertEquals(data.length, deflater.getTotalIn());
+    }
+
+    @Test
+    public void inflaterResetForgetsDetectedWrapper() throws GZIPException {
+        var data = TestUtil.randombuf(5000);
+        var gzip = deflate(new Deflater(Z_DEFAULT_COMPRESSION, 15, 8, W_GZIP), data);
+        var zlib = deflate(new Deflater(Z_DEFAULT_COMPRESSION, 15, 8, W_ZLIB), data);
+
+        var inflater = new Inflater(W_ANY);
+        assertArrayEquals(data, inflate(inflater, gzip));
+        assertEquals(Z_OK, inflater.reset());
+        assertArrayEquals(data, inflate(inflater, zlib));
+        assertEquals(Z_OK, inflater.reset());
+        assertArrayEquals(data, inflate(inflater, gzip));
+    }
+
+    @Test
+    public void endedCodecsCannotBeReset() throws GZIPException {
+        var deflater = new Deflater(Z_BEST_SPEED);
+        deflater.end();
+        assertEquals(Z_STREAM_ERROR, deflater.reset());
+
+        var inflater = new Inflater();
+        inflater.end();
+        assertEquals(Z_STREAM_ERROR, inflater.reset());
+    }
+
+    @Test
+    public void releasedCodecsAreReused() throws GZIPException {
+        var pool = new CodecPool(2);
+        var data = TestUtil.randombuf(3000);
+
+        var deflater = pool.getDeflater(Z_BEST_SPEED, 12, 5, W_NONE);
+        deflater.params(Z_BEST_COMPRESSION, Z_FILTERED);
+        deflate(deflater, data);
+        assertTrue(pool.release(deflater));
+
+        assertSame(deflater, pool.getDeflater(Z_BEST_SPEED, 12, 5, W_NONE));
+        var other = pool.getDeflater(Z_BEST_SPEED, 12, 5, W_ZLIB);
+        assertNotSame(deflater, other);
+        var expected = deflate(new Deflater(Z_BEST_SPEED, 12, 5, W_NONE), data);
+        assertArrayEquals(expected, deflate(deflater, data));
+
+        var inflater = pool.getInflater(15, W_NONE);
+        assertArrayEquals(data, inflate(inflater, expected));
+        assertTrue(pool.release(inflater));
+        assertSame(inflater, pool.getInflater(15, W_NONE));
+
+        assertEquals(2, pool.getHits());
+        assertEquals(3, pool.getMisses());
+    }
+
+    @Test
+    public void poolIsBounded() throws GZIPException {
+        var pool = new CodecPool(1);
+        var a = pool.getInflater();
+        var b = pool.getInflater();
+        assertTrue(pool.release(a));
+        assertFalse(pool.release(b));
+        assertFalse(pool.release(new Inflater()));
+        assertFalse(pool.release(new Deflater(Z_BEST_SPEED)));
+        assertThrows(GZIPException.class, () -> pool.getDeflater(10, 15, 8, W_ZLIB));
+        assertThrows(GZIPException.class, () -> pool.getDeflater(6, 15, 8, W_ANY));
+    }
+
+    @Test
+    public void releasingTwiceIsRejected() throws GZIPException {
+        var pool = new CodecPool(2);
+        var inflater = pool.getInflater();
+        assertTrue(pool.release(inflater));
+        assertThrows(IllegalStateException.class, () -> pool.release(inflater));
+        var a = pool.getInflater();
+        var b = pool.getInflater();
+        assertNotSame(a, b);
+
+        var deflater = pool.getDeflater(Z_BEST_SPEED);
+        assertTrue(pool.release(deflater));
+        assertThrows(IllegalStateException.class, () -> pool.release(deflater));
+        assertSame(deflater, pool.getDeflater(Z_BEST_SPEED));
+        assertTrue(pool.release(deflater));
+    }
+
+    @Test
+    public void concurrentUse() throws Exception {
+        var pool = new CodecPool(4);
+        var data = "The quick brown fox jumps over the lazy dog. ".repeat(200).getBytes(StandardCharsets.UTF_8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            var futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        var deflater = pool.getDeflater(Z_DEFAULT_COMPRESSION);
+                        var compressed = deflate(deflater, data);
+                        pool.release(deflater);
+                        var inflater = pool.getInflater();
+                        assertArrayEquals(data, inflate(inflater, compressed));
+                        pool.release(inflater);
+                    }
+                    return null;
+                }));
+            }
+            for (var future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(2 * 8 * 200, pool.getHits() + pool.getMisses());
+        assertTrue(pool.getHits() > 0);
+        pool.clear();
+    }
+}
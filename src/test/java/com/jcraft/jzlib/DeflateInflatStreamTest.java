@@ -6,10 +6,14 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
 
 import static com.jcraft.jzlib.JZlib.DEF_WBITS;
 import static com.jcraft.jzlib.JZlib.Z_DEFAULT_COMPRESSION;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class DeflateInflatStreamTest {
 
@@ -97,4 +101,42 @@ class DeflateInflatStreamTest {
             assertArrayEquals(data1, data2);
         }
     }
+
+    @Test
+    public void skipWithoutReading() throws IOException {
+        var r = new Random(1);
+        var data = new byte[3 << 20];
+        var chunk = TestUtil.randombuf(30000);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i % 400000 < 100000 ? chunk[i % chunk.length] : (byte) (i / 1000);
+        }
+        var baos = new ByteArrayOutputStream();
+        var gos = new GZIPOutputStream(baos);
+        gos.write(data);
+        gos.close();
+        var compressed = baos.toByteArray();
+
+        var in = new GZIPInputStream(new ByteArrayInputStream(compressed), 1000, true);
+        int pos = 0;
+        while (pos < data.length) {
+            var n = Math.min(r.nextInt(200000), data.length - pos);
+            assertEquals(n, in.skip(n));
+            pos += n;
+            var buf = in.readNBytes(r.nextInt(1000));
+            assertArrayEquals(Arrays.copyOfRange(data, pos, pos + buf.length), buf);
+            pos += buf.length;
+        }
+        assertEquals(0, in.skip(10));
+        assertEquals(-1, in.read());
+
+        in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        assertEquals(data.length, in.skip(Long.MAX_VALUE));
+
+        compressed[compressed.length - 8] ^= 1;
+        var corrupt = new GZIPInputStream(new ByteArrayInputStream(compressed));
+        assertThrows(IOException.class, () -> corrupt.skip(Long.MAX_VALUE));
+
+        var zis = new ZInputStream(new ByteArrayInputStream(compressed));
+        assertEquals(0, zis.skip(0));
+    }
 }
@@ -3,11 +3,14 @@ package com.jcraft.jzlib;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 
 import static com.jcraft.jzlib.JZlib.*;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class DeflateInflateTest {
 
@@ -333,4 +336,432 @@ class DeflateInflateTest {
 
         assertArrayEquals(data, actual);
     }
+    private void deflatePledged(byte[] data, long pledged) {
+        var error = deflater.init(Z_DEFAULT_COMPRESSION);
+        assertEquals(Z_OK, error);
+
+        error = deflater.setPledgedSize(pledged);
+        assertEquals(Z_OK, error);
+
+        deflater.setInput(data);
+        deflater.setOutput(compressedBuffer);
+
+        error = deflater.deflate(Z_FINISH);
+        assertEquals(Z_STREAM_END, error);
+
+        error = deflater.end();
+        assertEquals(Z_OK, error);
+    }
+
+    private byte[] inflateCompressedBuffer() {
+        var error = inflater.init();
+        assertEquals(Z_OK, error);
+
+        inflater.setInput(compressedBuffer);
+        inflater.setOutput(uncompressedBuffer);
+
+        error = inflater.inflate(Z_NO_FLUSH);
+        assertEquals(Z_STREAM_END, error);
+
+        error = inflater.end();
+        assertEquals(Z_OK, error);
+
+        var actual = new byte[(int) inflater.total_out];
+        System.arraycopy(uncompressedBuffer, 0, actual, 0, actual.length);
+        return actual;
+    }
+
+    @Test
+    public void pledgedSizeShrinksWindow() {
+        var data = "hello, hello! ".repeat(14).getBytes(StandardCharsets.UTF_8);
+
+        deflatePledged(data, data.length);
+
+        // CINFO of the zlib header, 9 bits of window for 196 bytes
+        assertEquals(1, (compressedBuffer[0] & 0xff) >> 4);
+        assertArrayEquals(data, inflateCompressedBuffer());
+    }
+
+    @Test
+    public void inputLargerThanPledgedSize() {
+        var data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) ("abcdefghijklm".charAt(i % 13) + i / 1000);
+        }
+
+        deflatePledged(data, 100);
+
+        assertArrayEquals(data, inflateCompressedBuffer());
+    }
+
+    @Test
+    public void pledgedSizeAfterInput() {
+        var error = deflater.init(Z_DEFAULT_COMPRESSION);
+        assertEquals(Z_OK, error);
+
+        deflater.setInput("hello".getBytes(StandardCharsets.UTF_8));
+        deflater.setOutput(compressedBuffer);
+        error = deflater.deflate(Z_NO_FLUSH);
+        assertEquals(Z_OK, error);
+
+        error = deflater.setPledgedSize(5);
+        assertEquals(Z_STREAM_ERROR, error);
+
+        // a reset deflater accepts a new size hint
+        error = deflater.reset();
+        assertEquals(Z_OK, error);
+        error = deflater.setPledgedSize(5);
+        assertEquals(Z_OK, error);
+    }
+    @Test
+    public void switchLevelsAroundStoredBlocks() {
+        var data = new byte[COMPRESSED_LEN / 4];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) "hello, hello! ".charAt(i % 14);
+        }
+        var out = new java.io.ByteArrayOutputStream();
+        var buf = new byte[100];
+
+        var error = deflater.init(Z_NO_COMPRESSION);
+        assertEquals(Z_OK, error);
+
+        int[] levels = {Z_NO_COMPRESSION, Z_BEST_COMPRESSION, Z_NO_COMPRESSION, Z_BEST_SPEED};
+        int chunk = data.length / levels.length;
+        for (int i = 0; i < levels.length; i++) {
+            // params() refuses to switch until the previous data is flushed
+            do {
+                deflater.setOutput(buf);
+                error = deflater.params(levels[i], Z_DEFAULT_STRATEGY);
+                out.write(buf, 0, deflater.next_out_index);
+            } while (error == Z_BUF_ERROR);
+            assertEquals(Z_OK, error);
+
+            deflater.setInput(data, i * chunk, chunk, false);
+            do {
+                deflater.setOutput(buf);
+                error = deflater.deflate(Z_NO_FLUSH);
+                assertEquals(Z_OK, error);
+                out.write(buf, 0, deflater.next_out_index);
+            } while (deflater.avail_in > 0 || deflater.avail_out == 0);
+        }
+        do {
+            deflater.setOutput(buf);
+            error = deflater.deflate(Z_FINISH);
+            out.write(buf, 0, deflater.next_out_index);
+        } while (error == Z_OK);
+        assertEquals(Z_STREAM_END, error);
+
+        compressedBuffer = out.toByteArray();
+        assertArrayEquals(data, inflateCompressedBuffer());
+    }
+
+    @Test
+    public void inflateIntoOutputOfVaryingSize() throws GZIPException {
+        var random = new java.util.Random(7);
+        var data = new byte[300000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = i > 2000 && random.nextInt(4) != 0
+                    ? data[i - 1 - random.nextInt(i > 40000 ? 40000 : i - 1)]
+                    : (byte) "abcdefgh ,.".charAt(random.nextInt(11));
+        }
+
+        for (int bits : new int[]{10, 15}) {
+            var out = new java.io.ByteArrayOutputStream();
+            var buf = new byte[70000];
+            var deflater = new Deflater(Z_DEFAULT_COMPRESSION, bits);
+            deflater.setInput(data);
+            do {
+                deflater.setOutput(buf);
+                deflater.deflate(Z_FINISH);
+                out.write(buf, 0, deflater.next_out_index);
+            } while (!deflater.finished());
+            var compressed = out.toByteArray();
+
+            // small and large output chunks take turns
+            var inflater = new Inflater(bits);
+            var actual = new byte[data.length];
+            inflater.setInput(compressed);
+            int[] sizes = {100, 5000, 1, 70000, 300, 40000};
+            int error;
+            int i = 0;
+            do {
+                int len = Math.min(sizes[i++ % sizes.length], data.length - inflater.next_out_index);
+                inflater.setOutput(actual, inflater.next_out_index, len);
+                error = inflater.inflate(Z_NO_FLUSH);
+            } while (error == Z_OK);
+            assertEquals(Z_STREAM_END, error);
+            assertArrayEquals(data, actual);
+        }
+    }
+
+    @Test
+    public void inflateStoredBlocksIntoOutput() throws GZIPException {
+        var data = new byte[200000];
+        new java.util.Random(3).nextBytes(data);
+        // the compressed second half refers back into the stored first half
+        System.arraycopy(data, 80000, data, 100000, 100000);
+
+        var out = new java.io.ByteArrayOutputStream();
+        var buf = new byte[50000];
+        var deflater = new Deflater(Z_NO_COMPRESSION);
+        deflater.setInput(data, 0, 100000, false);
+        do {
+            deflater.setOutput(buf);
+            assertEquals(Z_OK, deflater.deflate(Z_NO_FLUSH));
+            out.write(buf, 0, deflater.next_out_index);
+        } while (deflater.avail_in > 0);
+        int error;
+        do {
+            deflater.setOutput(buf);
+            error = deflater.params(Z_BEST_COMPRESSION, Z_DEFAULT_STRATEGY);
+            out.write(buf, 0, deflater.next_out_index);
+        } while (error == Z_BUF_ERROR);
+        deflater.setInput(data, 100000, 100000, false);
+        do {
+            deflater.setOutput(buf);
+            error = deflater.deflate(Z_FINISH);
+            out.write(buf, 0, deflater.next_out_index);
+        } while (error == Z_OK);
+        assertEquals(Z_STREAM_END, error);
+        var compressed = out.toByteArray();
+
+        for (int chunk : new int[]{7, 1000, 65536, data.length}) {
+            var inflater = new Inflater();
+            var actual = new byte[data.length];
+            inflater.setInput(compressed);
+            do {
+                int len = Math.min(chunk, data.length - inflater.next_out_index);
+                inflater.setOutput(actual, inflater.next_out_index, len);
+                error = inflater.inflate(Z_NO_FLUSH);
+            } while (error == Z_OK);
+            assertEquals(Z_STREAM_END, error);
+            assertArrayEquals(data, actual);
+        }
+    }
+
+    @Test
+    public void inflateManySmallBlocks() throws GZIPException {
+        // sync flushes every few bytes give short fixed, dynamic and
+        // stored blocks, each followed by an empty stored block
+        var data = new byte[200000];
+        var random = TestUtil.randombuf(4096);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (i / 2000) % 3 == 0 ? random[i % random.length] : (byte) ("abcab".charAt(i % 5) + i / 10000);
+        }
+        var out = new java.io.ByteArrayOutputStream();
+        var buf = new byte[100000];
+        var deflater = new Deflater(Z_DEFAULT_COMPRESSION);
+        int error;
+        for (int i = 0, seg = 1; i < data.length; i += seg, seg = seg * 7 % 1999 + 1) {
+            seg = Math.min(seg, data.length - i);
+            if (seg % 5 == 0) {
+                deflater.setOutput(buf);
+                error = deflater.params(seg % 2 == 0 ? Z_NO_COMPRESSION : Z_BEST_COMPRESSION, Z_DEFAULT_STRATEGY);
+                assertEquals(Z_OK, error);
+                out.write(buf, 0, deflater.next_out_index);
+            }
+            deflater.setInput(data, i, seg, false);
+            deflater.setOutput(buf);
+            assertEquals(Z_OK, deflater.deflate(Z_SYNC_FLUSH));
+            out.write(buf, 0, deflater.next_out_index);
+        }
+        deflater.setOutput(buf);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+        out.write(buf, 0, deflater.next_out_index);
+        var compressed = out.toByteArray();
+
+        for (int chunk : new int[]{1, 300, 5000, data.length}) {
+            var inflater = new Inflater();
+            var actual = new byte[data.length];
+            inflater.setInput(compressed);
+            do {
+                int len = Math.min(chunk, data.length - inflater.next_out_index);
+                inflater.setOutput(actual, inflater.next_out_index, len);
+                error = inflater.inflate(Z_NO_FLUSH);
+            } while (error == Z_OK);
+            assertEquals(Z_STREAM_END, error);
+            assertEquals(compressed.length, inflater.getTotalIn());
+            assertArrayEquals(data, actual);
+        }
+    }
+
+    @Test
+    public void windowGrowsWithTheStream() throws GZIPException {
+        var inflater = new Inflater();
+        assertNull(inflater.istate.blocks.window);
+
+        var data = "hello, hello, hello".getBytes(StandardCharsets.UTF_8);
+        var compressed = new byte[100];
+        var deflater = new Deflater(Z_DEFAULT_COMPRESSION);
+        deflater.setInput(data);
+        deflater.setOutput(compressed);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+
+        var actual = new byte[data.length];
+        inflater.setInput(compressed, 0, (int) deflater.getTotalOut(), false);
+        inflater.setOutput(actual);
+        assertEquals(Z_STREAM_END, inflater.inflate(Z_NO_FLUSH));
+        assertArrayEquals(data, actual);
+        assertTrue(inflater.istate.blocks.window.length < 32768);
+
+        // the zlib header of a 512 byte window caps the window size
+        data = TestUtil.randombuf(100000);
+        for (int i = 512; i < data.length; i++) {
+            if (i % 3 != 0) data[i] = data[i - 500];
+        }
+        compressed = new byte[data.length * 2];
+        deflater = new Deflater(Z_DEFAULT_COMPRESSION, 9);
+        deflater.setInput(data);
+        deflater.setOutput(compressed);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+
+        inflater = new Inflater();
+        actual = new byte[data.length];
+        inflater.setInput(compressed, 0, (int) deflater.getTotalOut(), false);
+        int error;
+        do {
+            inflater.setOutput(actual, inflater.next_out_index, Math.min(777, data.length - inflater.next_out_index));
+            error = inflater.inflate(Z_NO_FLUSH);
+        } while (error == Z_OK);
+        assertEquals(Z_STREAM_END, error);
+        assertArrayEquals(data, actual);
+        assertEquals(512, inflater.istate.blocks.window.length);
+    }
+
+    @Test
+    public void deflateInflateByteBuffers() throws GZIPException {
+        var data = TestUtil.randombuf(300000);
+        for (int i = 1000; i < data.length; i++) {
+            if (i % 5 != 0) data[i] = data[i - 997];
+        }
+
+        // direct input, gathered into small direct and heap buffers
+        var in = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        var outs = new ByteBuffer[40];
+        for (int i = 0; i < outs.length; i++) {
+            outs[i] = i % 2 == 0 ? ByteBuffer.allocateDirect(7000) : ByteBuffer.allocate(9000);
+        }
+        var deflater = new Deflater(Z_DEFAULT_COMPRESSION, 15, 8, W_GZIP);
+        deflater.setInput(in);
+        deflater.setOutput(outs);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+        assertEquals(0, in.remaining());
+        assertEquals(0, deflater.getAvailIn());
+
+        var compressed = ByteBuffer.allocateDirect((int) deflater.getTotalOut());
+        for (var out : outs) {
+            compressed.put(out.flip());
+        }
+        compressed.flip();
+
+        // into a heap slice with a non-zero array offset, 1000 bytes a call
+        var backing = ByteBuffer.allocate(data.length + 200);
+        var actual = backing.position(100).slice().limit(data.length);
+        var inflater = new Inflater(W_GZIP);
+        inflater.setInput(compressed);
+        int error;
+        do {
+            var room = actual.duplicate().limit(Math.min(actual.position() + 1000, actual.limit()));
+            inflater.setOutput(room);
+            error = inflater.inflate(Z_NO_FLUSH);
+            actual.position(room.position());
+        } while (error == Z_OK);
+        assertEquals(Z_STREAM_END, error);
+        assertEquals(0, compressed.remaining());
+        assertEquals(data.length, actual.position());
+        assertArrayEquals(data, java.util.Arrays.copyOfRange(backing.array(), 100, 100 + data.length));
+    }
+
+    @Test
+    public void flushLargeDirectInput() throws GZIPException {
+        // more direct input than is staged at a time, and room for all the output
+        var data = TestUtil.randombuf(300000);
+        for (int i = 1000; i < data.length; i++) {
+            if (i % 5 != 0) data[i] = data[i - 997];
+        }
+        var in = ByteBuffer.allocateDirect(data.length).put(data).flip();
+        var out = ByteBuffer.allocate(data.length + 1000);
+        var deflater = new Deflater(Z_DEFAULT_COMPRESSION);
+        deflater.setOutput(out);
+        deflater.setInput(in.duplicate().limit(150000));
+        assertEquals(Z_OK, deflater.deflate(Z_SYNC_FLUSH));
+        assertEquals(150000, deflater.getTotalIn());
+
+        // everything up to the sync flush inflates
+        var actual = ByteBuffer.allocate(data.length);
+        var inflater = new Inflater();
+        inflater.setInput(out.duplicate().flip());
+        inflater.setOutput(actual);
+        assertEquals(Z_OK, inflater.inflate(Z_SYNC_FLUSH));
+        assertEquals(150000, actual.position());
+
+        deflater.setInput(in.position(150000));
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+        assertEquals(data.length, deflater.getTotalIn());
+
+        inflater = new Inflater();
+        inflater.setInput(out.flip());
+        inflater.setOutput(actual.clear());
+        assertEquals(Z_STREAM_END, inflater.inflate(Z_FINISH));
+        assertArrayEquals(data, actual.array());
+    }
+
+    @Test
+    public void byteBuffersMixWithArrays() throws GZIPException {
+        var data = TestUtil.randombuf(100000);
+        var deflater = new Deflater(Z_DEFAULT_COMPRESSION);
+        var compressed = new byte[data.length + 1000];
+        deflater.setOutput(compressed);
+        deflater.setInput(ByteBuffer.allocateDirect(60000).put(data, 0, 60000).flip());
+        assertEquals(Z_OK, deflater.deflate(Z_NO_FLUSH));
+        deflater.setInput(data, 60000, data.length - 60000, true);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+
+        var inflater = new Inflater();
+        var head = ByteBuffer.allocateDirect(100);
+        inflater.setInput(compressed, 0, (int) deflater.getTotalOut(), false);
+        inflater.setOutput(head);
+        assertEquals(Z_OK, inflater.inflate(Z_NO_FLUSH));
+        assertEquals(0, inflater.getAvailOut());
+        assertEquals(Z_BUF_ERROR, inflater.inflate(Z_NO_FLUSH));
+
+        var actual = new byte[data.length];
+        head.flip().get(actual, 0, 100);
+        inflater.setOutput(actual, 100, actual.length - 100);
+        assertEquals(Z_STREAM_END, inflater.inflate(Z_NO_FLUSH));
+        assertArrayEquals(data, actual);
+    }
+
+    @Test
+    public void outputChunksAroundTheWindowSizes() throws GZIPException {
+        // text-like data, so that matches reach back across the window;
+        // some of these sizes have a direct write fill the growing window
+        // exactly
+        var r = new java.util.Random(11);
+        var words = new String[]{"GET ", "POST ", "/index.html ", "200 ", "404 ", "Mozilla/5.0 ", "\n"};
+        var text = new StringBuilder();
+        while (text.length() < 110967) {
+            text.append(words[r.nextInt(words.length)]);
+            if (r.nextInt(4) == 0) text.append(r.nextInt(100000));
+        }
+        var data = text.toString().getBytes(StandardCharsets.UTF_8);
+        var compressed = new byte[data.length];
+        var deflater = new Deflater(Z_DEFAULT_COMPRESSION, 15, 8, W_GZIP);
+        deflater.setInput(data);
+        deflater.setOutput(compressed);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+
+        for (int chunk = 4090; chunk < 4400; chunk++) {
+            var inflater = new Inflater(W_GZIP);
+            var actual = new byte[data.length];
+            inflater.setInput(compressed, 0, (int) deflater.getTotalOut(), false);
+            int error;
+            do {
+                inflater.setOutput(actual, inflater.next_out_index, Math.min(chunk, data.length - inflater.next_out_index));
+                error = inflater.inflate(Z_NO_FLUSH);
+            } while (error == Z_OK);
+            assertEquals(Z_STREAM_END, error, "chunk " + chunk);
+            assertArrayEquals(data, actual, "chunk " + chunk);
+        }
+    }
 }
@@ -1,23 +1,33 @@
 package com.jcraft.jzlib;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.CheckedOutputStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class GZIPIOStreamTest {
 
+    @TempDir
+    Path dir;
+
     @Test
     public void deflateAndInflateData() throws IOException {
         var comment = "hi";
@@ -91,4 +101,105 @@ class GZIPIOStreamTest {
 
     }
 
+    @Test
+    public void inflateConcatenatedMembers() throws IOException {
+        var all = new ByteArrayOutputStream();
+        var expected = new ByteArrayOutputStream();
+        for (var text : new String[]{"first member\n", "", "second\n", "x".repeat(5000)}) {
+            var gos = new GZIPOutputStream(all);
+            gos.write(text.getBytes(StandardCharsets.UTF_8));
+            gos.finish();
+            expected.writeBytes(text.getBytes(StandardCharsets.UTF_8));
+        }
+        all.writeBytes("trailing garbage".getBytes(StandardCharsets.UTF_8));
+
+        for (var size : new int[]{1, 7, 512}) {
+            var gis = new GZIPInputStream(new ByteArrayInputStream(all.toByteArray()), size, true);
+            var out = new ByteArrayOutputStream();
+            var buf = new byte[100];
+            int n;
+            while ((n = gis.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            assertArrayEquals(expected.toByteArray(), out.toByteArray(), "buffer " + size);
+            assertEquals(-1, gis.read());
+        }
+    }
+
+    @Test
+    public void readAllBytesAndTransferTo() throws Exception {
+        var data = new byte[300000];
+        var r = TestUtil.randombuf(1000);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = r[(i * 7 + i / 300) % r.length];
+        }
+        var baos = new ByteArrayOutputStream();
+        var gos = new GZIPOutputStream(baos);
+        gos.write(data);
+        gos.close();
+        var member = baos.toByteArray();
+
+        var file = dir.resolve("data.gz");
+        Files.write(file, member);
+        try (var gis = new GZIPInputStream(new FileInputStream(file.toFile()))) {
+            assertArrayEquals(data, gis.readAllBytes());
+            assertEquals(0, gis.readAllBytes().length);
+        }
+        try (var gis = new GZIPInputStream(new FileInputStream(file.toFile()))) {
+            assertArrayEquals(Arrays.copyOf(data, 1000), gis.readNBytes(1000));
+            assertArrayEquals(Arrays.copyOfRange(data, 1000, data.length), gis.readAllBytes());
+        }
+
+        // the last ISIZE does not tell the whole length of several members
+        baos.write(member);
+        var small = new ByteArrayOutputStream();
+        gos = new GZIPOutputStream(small);
+        gos.write(data, 0, 10);
+        gos.close();
+        baos.write(small.toByteArray());
+        Files.write(file, baos.toByteArray());
+        var expected = new ByteArrayOutputStream();
+        expected.write(data);
+        expected.write(data);
+        expected.write(data, 0, 10);
+        try (var gis = new GZIPInputStream(new FileInputStream(file.toFile()))) {
+            assertArrayEquals(expected.toByteArray(), gis.readAllBytes());
+        }
+
+        // partly read, the last ISIZE is less than what has been inflated
+        var random = TestUtil.randombuf(6 << 20);
+        var big = new ByteArrayOutputStream();
+        gos = new GZIPOutputStream(big);
+        gos.write(random);
+        gos.close();
+        big.write(small.toByteArray());
+        var bigFile = Files.write(dir.resolve("big.gz"), big.toByteArray());
+        try (var gis = new GZIPInputStream(new FileInputStream(bigFile.toFile()))) {
+            assertArrayEquals(Arrays.copyOf(random, 1000), gis.readNBytes(1000));
+            var rest = gis.readAllBytes();
+            assertEquals(random.length - 1000 + 10, rest.length);
+            assertArrayEquals(Arrays.copyOfRange(random, 1000, random.length), Arrays.copyOf(rest, random.length - 1000));
+        }
+
+        // a FileInputStream that is not a regular file has no size hint
+        var fifo = dir.resolve("fifo");
+        assumeTrue(new ProcessBuilder("mkfifo", fifo.toString()).start().waitFor() == 0);
+        var writer = new Thread(() -> {
+            try {
+                Files.write(fifo, member);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        writer.start();
+        try (var fis = new GZIPInputStream(new FileInputStream(fifo.toFile()))) {
+            assertArrayEquals(data, fis.readAllBytes());
+        }
+        writer.join();
+
+        var out = new ByteArrayOutputStream();
+        var gis = new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(expected.size(), gis.transferTo(out));
+        assertArrayEquals(expected.toByteArray(), out.toByteArray());
+    }
 }
@@ -0,0 +1,130 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.jcraft.jzlib.JZlib.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GzipIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] data(int size) {
+        var r = new Random(size);
+        var words = new String[]{"GET ", "POST ", "/index.html ", "200 ", "404 ", "Mozilla/5.0 ", "\n"};
+        var out = new ByteArrayOutputStream();
+        while (out.size() < size) {
+            out.writeBytes(words[r.nextInt(words.length)].getBytes());
+            if (r.nextInt(4) == 0) {
+                out.writeBytes(Integer.toString(r.nextInt(100000)).getBytes());
+            }
+        }
+        return Arrays.copyOf(out.toByteArray(), size);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var gos = new java.util.zip.GZIPOutputStream(out)) {
+            gos.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void seekAndReadRanges() throws Exception {
+        var data = data(3 << 20);
+        var file = dir.resolve("data.gz");
+        Files.write(file, gzip(data));
+
+        var index = GzipIndex.build(Files.newInputStream(file), 1 << 16);
+        assertEquals(data.length, index.length());
+        assertTrue(index.size() > 10, "points " + index.size());
+
+        var out = new ByteArrayOutputStream();
+        index.write(out);
+        assertTrue(out.size() < index.size() * (1 << 15), "index " + out.size());
+        var copy = GzipIndex.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(index.size(), copy.size());
+        assertEquals(index.length(), copy.length());
+
+        var r = new Random(1);
+        try (var ch = FileChannel.open(file)) {
+            for (var i : new GzipIndex[]{index, copy}) {
+                for (int k = 0; k < 20; k++) {
+                    var offset = k == 0 ? 0 : r.nextInt(data.length);
+                    var buf = new byte[r.nextInt(100000)];
+                    var n = i.read(ch, offset, buf, 0, buf.length);
+                    assertEquals(Math.min(buf.length, data.length - offset), n);
+                    assertArrayEquals(Arrays.copyOfRange(data, offset, offset + n), Arrays.copyOf(buf, n),
+                        "offset " + offset);
+                }
+                assertEquals(-1, i.read(ch, data.length, new byte[10], 0, 10));
+
+                try (var in = i.open(ch, data.length - 70000)) {
+                    assertArrayEquals(Arrays.copyOfRange(data, data.length - 70000, data.length), in.readAllBytes());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void inflateStopsAtBlockBoundaries() throws Exception {
+        var data = data(1 << 20);
+        var compressed = gzip(data);
+        var inflater = new Inflater(W_GZIP);
+        inflater.setInput(compressed);
+        var out = new byte[data.length];
+        int boundaries = 0;
+        int err;
+        do {
+            inflater.setOutput(out, inflater.next_out_index, out.length - inflater.next_out_index);
+            err = inflater.inflate(Z_BLOCK);
+            if ((inflater.getDataType() & 128) != 0) {
+                boundaries++;
+            }
+        } while (err == Z_OK);
+        assertEquals(Z_STREAM_END, err);
+        assertArrayEquals(data, out);
+        assertTrue(boundaries > 2, "boundaries " + boundaries);
+    }
+
+    @Test
+    public void rejectsBadInput() throws Exception {
+        var compressed = gzip(data(100000));
+        var truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        assertThrows(IOException.class, () -> GzipIndex.build(new ByteArrayInputStream(truncated)));
+        assertThrows(GZIPException.class, () -> GzipIndex.read(new ByteArrayInputStream(compressed)));
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws Exception {
+        // text with runs of random bytes, so that some windows hardly compress
+        var r = new Random(2);
+        for (int k = 0; k < 50; k++) {
+            var out = new ByteArrayOutputStream();
+            while (out.size() < 300000) {
+                out.writeBytes(r.nextBoolean() ? data(r.nextInt(50000)) : TestUtil.randombuf(r.nextInt(50000)));
+            }
+            var data = out.toByteArray();
+            var index = GzipIndex.build(new ByteArrayInputStream(gzip(data)), 30000 + r.nextInt(70000));
+            out.reset();
+            index.write(out);
+            var copy = GzipIndex.read(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(index.size(), copy.size(), "data " + k);
+        }
+    }
+}
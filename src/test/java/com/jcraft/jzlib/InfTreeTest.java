@@ -0,0 +1,96 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InfTreeTest {
+
+    @Test
+    public void entriesRoundTrip() {
+        var e = InfTree.entry(16 + 64 + 13, 5, 24577);
+        assertEquals(16 + 64 + 13, InfTree.op(e));
+        assertEquals(5, InfTree.bits(e));
+        assertEquals(24577, InfTree.value(e));
+
+        e = InfTree.entry((byte) (112 + 16 + 64), 8, 0);
+        assertEquals(128 + 64, InfTree.op(e));
+    }
+
+    @Test
+    public void fixedTablesArePacked() {
+        assertEquals(1 << InfTree.fixed_bl, InfTree.fixed_tl.length);
+        assertEquals(1 << InfTree.fixed_bd, InfTree.fixed_td.length);
+
+        // code 0000000 is end-of-block, 0011000 is literal 0x00
+        assertEquals(InfTree.entry(32 + 64, 7, 256), InfTree.fixed_tl[0]);
+        assertEquals(InfTree.entry(0, 8, 0), InfTree.fixed_tl[0b000001100]);
+        assertEquals(InfTree.entry(16 + 64 + 13, 5, 24577), InfTree.fixed_td[0b10111]);
+    }
+
+    @Test
+    public void dynamicTablesMatchFixed() {
+        // building the fixed code lengths yields the same packed table
+        var lens = new int[288 + 1];
+        for (int i = 0; i < 288; i++) {
+            lens[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        lens[288] = 1;
+        var hufts = new int[InfTree.ENOUGH];
+        var tree = new InfTree();
+        assertEquals(JZlib.Z_OK, tree.inflate_trees_dynamic(288, 1, lens, hufts, new ZStream()));
+        assertEquals(InfTree.fixed_bl, tree.bl);
+        for (int i = 0; i < InfTree.fixed_tl.length; i++) {
+            assertEquals(InfTree.fixed_tl[i], hufts[tree.tl + i], "tl " + i);
+        }
+    }
+
+    @Test
+    public void multiLiteralTablePairsShortLiterals() {
+        // 'a' = 0, 'b' = 10, 0x00 = 110, end-of-block = 111
+        var lens = new int[257 + 1];
+        lens['a'] = 1;
+        lens['b'] = 2;
+        lens[0] = 3;
+        lens[256] = 3;
+        lens[257] = 1;
+        var hufts = new int[InfTree.ENOUGH];
+        var tree = new InfTree();
+        assertEquals(JZlib.Z_OK, tree.inflate_trees_dynamic(257, 1, lens, hufts, new ZStream()));
+
+        var mt = new int[1 << InfTree.multi_bits];
+        InfTree.inflate_trees_multi(hufts, tree.tl, tree.bl, mt);
+        assertEquals('a' << 24 | 'a' << 16 | 0x10 | 2, mt[0b000]);
+        assertEquals('a' << 24 | 'b' << 16 | 0x10 | 3, mt[0b001]);
+        assertEquals('a' << 24 | 0x10 | 4, mt[0b0011]);
+        assertEquals(hufts[tree.tl + 0b111], mt[0b111]);
+        assertEquals(InfTree.entry(32 + 64, 3, 256), mt[0b111]);
+    }
+
+    @Test
+    public void repeatedCodeLengthsReuseTables() {
+        var lens = new int[288 + 1];
+        for (int i = 0; i < 288; i++) {
+            lens[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+        }
+        lens[288] = 1;
+        var hufts = new int[InfTree.ENOUGH];
+        var tree = new InfTree();
+        var z = new ZStream();
+
+        assertEquals(JZlib.Z_OK, tree.inflate_trees_dynamic(288, 1, lens, hufts, z));
+        assertFalse(tree.reused);
+        assertEquals(JZlib.Z_OK, tree.inflate_trees_dynamic(288, 1, lens.clone(), hufts, z));
+        assertTrue(tree.reused);
+
+        // an over-subscribed set fails and forgets the cached tables
+        lens[0] = 1;
+        assertEquals(JZlib.Z_DATA_ERROR, tree.inflate_trees_dynamic(288, 1, lens, hufts, z));
+        assertEquals("oversubscribed literal/length tree", z.msg);
+        lens[0] = 8;
+        assertEquals(JZlib.Z_OK, tree.inflate_trees_dynamic(288, 1, lens, hufts, z));
+        assertFalse(tree.reused);
+    }
+}
@@ -0,0 +1,125 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.jcraft.jzlib.JZlib.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InflateBackTest {
+
+    private static byte[] data() {
+        var data = new byte[100000];
+        var r = TestUtil.randombuf(1000);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = r[(i * 7 + i / 500) % r.length];
+        }
+        return data;
+    }
+
+    private static byte[] compress(byte[] data, JZlib.WrapperType wrapperType) throws GZIPException {
+        var deflater = new Deflater(Z_DEFAULT_COMPRESSION, 15, 8, wrapperType);
+        var out = new byte[data.length + 1000];
+        deflater.setInput(data);
+        deflater.setOutput(out);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+        return Arrays.copyOf(out, (int) deflater.getTotalOut());
+    }
+
+    private static InflateBack.InputSupplier chunks(byte[] in, int size, boolean direct) {
+        var pos = new int[1];
+        return () -> {
+            if (pos[0] == in.length) {
+                return null;
+            }
+            var len = Math.min(size, in.length - pos[0]);
+            var buf = direct ? ByteBuffer.allocateDirect(len) : ByteBuffer.allocate(len);
+            buf.put(in, pos[0], len).flip();
+            pos[0] += len;
+            return buf;
+        };
+    }
+
+    private static InflateBack.OutputConsumer collect(ByteArrayOutputStream out) {
+        return buf -> {
+            var b = new byte[buf.remaining()];
+            buf.get(b);
+            out.writeBytes(b);
+        };
+    }
+
+    @Test
+    public void inflateAllWrappers() throws Exception {
+        var data = data();
+        for (var wrapperType : new JZlib.WrapperType[]{W_NONE, W_ZLIB, W_GZIP}) {
+            var compressed = compress(data, wrapperType);
+            for (var direct : new boolean[]{false, true}) {
+                var out = new ByteArrayOutputStream();
+                var inflater = new InflateBack(wrapperType);
+                var err = inflater.inflate(chunks(compressed, 999, direct), collect(out));
+                assertEquals(Z_STREAM_END, err, wrapperType + " " + inflater.getMessage());
+                assertArrayEquals(data, out.toByteArray());
+                assertEquals(compressed.length, inflater.getTotalIn());
+                assertEquals(data.length, inflater.getTotalOut());
+            }
+        }
+    }
+
+    @Test
+    public void anyWrapperTakesRawDeflateAsInflaterDoes() throws Exception {
+        var data = data();
+        for (var wrapperType : new JZlib.WrapperType[]{W_NONE, W_ZLIB, W_GZIP}) {
+            var compressed = compress(data, wrapperType);
+            var out = new ByteArrayOutputStream();
+            var inflater = new InflateBack(W_ANY);
+            assertEquals(Z_STREAM_END, inflater.inflate(chunks(compressed, 1, false), collect(out)), wrapperType.toString());
+            assertArrayEquals(data, out.toByteArray());
+
+            var actual = new byte[data.length];
+            var reference = new Inflater(W_ANY);
+            reference.setInput(compressed);
+            reference.setOutput(actual);
+            assertEquals(Z_STREAM_END, reference.inflate(Z_FINISH));
+            assertArrayEquals(data, actual);
+        }
+    }
+
+    @Test
+    public void inflateLeavesTrailingInput() throws Exception {
+        var data = data();
+        var compressed = compress(data, W_ZLIB);
+        var in = ByteBuffer.allocate(compressed.length + 3);
+        in.put(compressed).put(new byte[]{1, 2, 3}).flip();
+
+        var out = new ByteArrayOutputStream();
+        var inflater = new InflateBack(new byte[1 << 15], W_ANY);
+        var calls = new int[1];
+        var err = inflater.inflate(() -> calls[0]++ == 0 ? in : null, collect(out));
+        assertEquals(Z_STREAM_END, err);
+        assertArrayEquals(data, out.toByteArray());
+        assertEquals(3, in.remaining());
+        assertEquals(1, in.get());
+    }
+
+    @Test
+    public void inflateTruncatedOrCorrupt() throws Exception {
+        var data = data();
+        var compressed = compress(data, W_GZIP);
+        var inflater = new InflateBack(W_GZIP);
+
+        var out = new ByteArrayOutputStream();
+        var err = inflater.inflate(chunks(Arrays.copyOf(compressed, compressed.length - 4), 4096, false), collect(out));
+        assertEquals(Z_BUF_ERROR, err);
+
+        compressed[compressed.length - 8] ^= 1;
+        out.reset();
+        err = inflater.inflate(chunks(compressed, 4096, false), collect(out));
+        assertEquals(Z_DATA_ERROR, err);
+        assertEquals("incorrect data check", inflater.getMessage());
+        assertArrayEquals(data, out.toByteArray());
+    }
+}
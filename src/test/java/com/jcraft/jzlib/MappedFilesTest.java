@@ -0,0 +1,87 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static com.jcraft.jzlib.JZlib.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedFilesTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] data(int size) {
+        var data = TestUtil.randombuf(size);
+        for (int i = 1000; i < data.length; i++) {
+            if (i % 3 != 0) data[i] = data[i - 999];
+        }
+        return data;
+    }
+
+    @Test
+    public void deflateInflateFiles() throws Exception {
+        var data = data(500000);
+        var src = Files.write(dir.resolve("data"), data);
+        var compressed = dir.resolve("data.z");
+        var actual = dir.resolve("data.out");
+        for (var wrapperType : new JZlib.WrapperType[]{W_ZLIB, W_GZIP}) {
+            // small windows stand in for files over 2GB
+            for (var window : new int[]{1 << 30, 4099}) {
+                var length = MappedFiles.deflate(src, compressed, 6, wrapperType, window);
+                assertEquals(Files.size(compressed), length);
+                assertEquals(data.length, MappedFiles.inflate(compressed, actual, window));
+                assertArrayEquals(data, Files.readAllBytes(actual), wrapperType + " " + window);
+            }
+        }
+        var gz = new java.util.zip.GZIPInputStream(Files.newInputStream(compressed)).readAllBytes();
+        assertArrayEquals(data, gz);
+
+        Files.write(src, new byte[0]);
+        MappedFiles.deflate(src, compressed, 6, W_GZIP);
+        assertEquals(0, MappedFiles.inflate(compressed, actual));
+        assertEquals(0, Files.size(actual));
+    }
+
+    @Test
+    public void inflateMembersPastTheSizeHint() throws Exception {
+        var data = data(300000);
+        var out = new ByteArrayOutputStream();
+        for (var part : new byte[][]{data, Arrays.copyOf(data, 1000)}) {
+            var gos = new GZIPOutputStream(out, 512, false);
+            gos.write(part);
+            gos.close();
+        }
+        var compressed = Files.write(dir.resolve("two.gz"), out.toByteArray());
+        var actual = dir.resolve("two");
+        var expected = new ByteArrayOutputStream();
+        expected.write(data);
+        expected.write(data, 0, 1000);
+        for (var window : new int[]{1 << 30, 777}) {
+            assertEquals(expected.size(), MappedFiles.inflate(compressed, actual, window));
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(actual));
+        }
+
+        // trailing bytes that understate, overstate, or could not be, the size
+        var bytes = out.toByteArray();
+        var trailers = new byte[][]{{0, 0, 0, 0, 0x10, 0, 0, 0}, {0, 0, 0, 0, (byte) 0x80, 0x1a, 0x06, 0}, "trailing garbage".getBytes()};
+        for (var trailer : trailers) {
+            var garbage = Arrays.copyOf(bytes, bytes.length + trailer.length);
+            System.arraycopy(trailer, 0, garbage, bytes.length, trailer.length);
+            Files.write(compressed, garbage);
+            assertEquals(expected.size(), MappedFiles.inflate(compressed, actual));
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(actual));
+        }
+
+        Files.write(compressed, Arrays.copyOf(bytes, bytes.length / 3));
+        assertThrows(EOFException.class, () -> MappedFiles.inflate(compressed, actual));
+    }
+}
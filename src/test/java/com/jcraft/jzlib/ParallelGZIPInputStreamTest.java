@@ -0,0 +1,164 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.jcraft.jzlib.JZlib.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelGZIPInputStreamTest {
+
+    @TempDir
+    Path dir;
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void start() {
+        pool = new ForkJoinPool(3);
+    }
+
+    @AfterAll
+    static void stop() {
+        pool.shutdown();
+    }
+
+    private static byte[] text(Random r, int size) {
+        var words = new String[]{"GET ", "POST ", "/index.html ", "200 ", "404 ", "Mozilla/5.0 ", "\n"};
+        var out = new ByteArrayOutputStream();
+        while (out.size() < size) {
+            out.writeBytes(words[r.nextInt(words.length)].getBytes());
+            if (r.nextInt(4) == 0) {
+                out.writeBytes(Integer.toString(r.nextInt(100000)).getBytes());
+            }
+        }
+        return Arrays.copyOf(out.toByteArray(), size);
+    }
+
+    private static byte[] gzip(byte[] data, int level) throws IOException {
+        var deflater = new Deflater(level, 15, 8, W_GZIP);
+        var out = new byte[data.length + data.length / 100 + 1000];
+        deflater.setInput(data);
+        deflater.setOutput(out);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+        return Arrays.copyOf(out, (int) deflater.getTotalOut());
+    }
+
+    private byte[] readAll(Path file) throws IOException {
+        try (var in = new ParallelGZIPInputStream(FileChannel.open(file), pool, true)) {
+            var out = new ByteArrayOutputStream();
+            var buf = new byte[10000];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void inflateMembersInOrder() throws Exception {
+        var r = new Random(1);
+        var data = new ByteArrayOutputStream();
+        var compressed = new ByteArrayOutputStream();
+        for (int i = 0; i < 40; i++) {
+            // a big member, one holding a gzip file stored, an empty one
+            var text = i == 7 ? text(r, 6 << 20) : i == 20 ? gzip(text(r, 50000), 6) : text(r, r.nextInt(200000));
+            if (i == 30) {
+                text = new byte[0];
+            }
+            data.writeBytes(text);
+            compressed.writeBytes(gzip(text, i == 20 ? 0 : 6));
+        }
+        var file = dir.resolve("members.gz");
+        Files.write(file, compressed.toByteArray());
+        assertArrayEquals(data.toByteArray(), readAll(file));
+
+        var members = compressed.toByteArray();
+        compressed.writeBytes("trailing garbage".getBytes());
+        Files.write(file, compressed.toByteArray());
+        assertArrayEquals(data.toByteArray(), readAll(file));
+
+        compressed.reset();
+        compressed.writeBytes(members);
+        compressed.writeBytes(Arrays.copyOf(gzip(text(r, 1000), 6), 100));
+        Files.write(file, compressed.toByteArray());
+        assertThrows(IOException.class, () -> readAll(file));
+    }
+
+    @Test
+    public void corruptMemberFailsInOrder() throws Exception {
+        var r = new Random(2);
+        var first = text(r, 100000);
+        var compressed = new ByteArrayOutputStream();
+        compressed.writeBytes(gzip(first, 6));
+        var second = gzip(text(r, 100000), 6);
+        second[second.length - 8] ^= 1;
+        compressed.writeBytes(second);
+        compressed.writeBytes(gzip(text(r, 100000), 6));
+
+        var file = dir.resolve("corrupt.gz");
+        Files.write(file, compressed.toByteArray());
+        try (var in = new ParallelGZIPInputStream(FileChannel.open(file), pool, true)) {
+            var buf = new byte[first.length];
+            int n = 0;
+            while (n < buf.length) {
+                n += in.read(buf, n, buf.length - n);
+            }
+            assertArrayEquals(first, buf);
+            var e = assertThrows(IOException.class, () -> in.readAllBytes());
+            assertEquals("incorrect data check", e.getMessage());
+        }
+
+        Files.write(file, "not gzip".getBytes());
+        assertThrows(IOException.class, () -> readAll(file));
+    }
+
+    @Test
+    public void largeMembersGoOnFromTheirTask() throws Exception {
+        var r = new Random(3);
+        var data = new ByteArrayOutputStream();
+        var compressed = new ByteArrayOutputStream();
+        for (int i = 0; i < 4; i++) {
+            // just at, and well past, the output a task stops at
+            var text = text(r, i == 1 ? 4 << 20 : (5 << 20) + r.nextInt(100000));
+            data.writeBytes(text);
+            compressed.writeBytes(gzip(text, 6));
+        }
+        var file = dir.resolve("large.gz");
+        Files.write(file, compressed.toByteArray());
+        assertArrayEquals(data.toByteArray(), readAll(file));
+
+        var expected = data.toByteArray();
+        try (var in = new ParallelGZIPInputStream(FileChannel.open(file), pool, true)) {
+            assertEquals(3 << 20, in.skip(3 << 20));
+            var buf = new byte[2 << 20];
+            int n = 0;
+            while (n < buf.length) {
+                n += in.read(buf, n, buf.length - n);
+            }
+            assertArrayEquals(Arrays.copyOfRange(expected, 3 << 20, 5 << 20), buf);
+            assertEquals(expected.length - (5 << 20), in.skip(Long.MAX_VALUE));
+            assertEquals(-1, in.read());
+        }
+
+        var members = compressed.toByteArray();
+        members[members.length - 8] ^= 1;
+        Files.write(file, members);
+        var e = assertThrows(IOException.class, () -> readAll(file));
+        assertEquals("incorrect data check", e.getMessage());
+    }
+}
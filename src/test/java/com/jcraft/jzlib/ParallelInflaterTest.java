@@ -0,0 +1,138 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.jcraft.jzlib.JZlib.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParallelInflaterTest {
+
+    private static ExecutorService executor;
+
+    @BeforeAll
+    static void start() {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterAll
+    static void stop() {
+        executor.shutdown();
+    }
+
+    private static byte[] text(Random r, int size) {
+        var words = new String[]{"GET ", "POST ", "/index.html ", "200 ", "404 ", "Mozilla/5.0 ", "\n"};
+        var out = new ByteArrayOutputStream();
+        while (out.size() < size) {
+            out.writeBytes(words[r.nextInt(words.length)].getBytes());
+            if (r.nextInt(4) == 0) {
+                out.writeBytes(Integer.toString(r.nextInt(100000)).getBytes());
+            }
+        }
+        return Arrays.copyOf(out.toByteArray(), size);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var gos = new java.util.zip.GZIPOutputStream(out)) {
+            gos.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void inflatePlainGzip() throws Exception {
+        var data = text(new Random(1), 3 << 20);
+        var compressed = gzip(data);
+        for (var threads : new int[]{1, 2, 5}) {
+            var out = new ByteArrayOutputStream();
+            var inflater = new ParallelInflater(executor, threads, 1 << 16);
+            assertEquals(data.length, inflater.inflate(compressed, out));
+            assertArrayEquals(data, out.toByteArray(), "threads " + threads);
+        }
+
+        var out = new ByteArrayOutputStream();
+        assertEquals(data.length, new ParallelInflater().inflate(compressed, out));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void rangesWithMuchOutputAreCutShort() throws Exception {
+        // each 64K range inflates to well over the 4MB a range may hold
+        var r = new Random(4);
+        var line = text(r, 1000);
+        var data = new byte[24 << 20];
+        for (int i = 0; i < data.length; i += line.length) {
+            for (int j = 0; j < 3; j++) {
+                line[r.nextInt(line.length)] = (byte) ('0' + r.nextInt(10));
+            }
+            System.arraycopy(line, 0, data, i, Math.min(line.length, data.length - i));
+        }
+        var compressed = gzip(data);
+        assertTrue(compressed.length > 3 << 16 && compressed.length < data.length / 64);
+        var out = new ByteArrayOutputStream();
+        assertEquals(data.length, new ParallelInflater(executor, 3, 1 << 16).inflate(compressed, out));
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test
+    public void falseStartsAreDecodedAgain() throws Exception {
+        // stored blocks holding deflate streams of their own offer block
+        // starts that decode without an error, but in the wrong place
+        var r = new Random(2);
+        var data = new ByteArrayOutputStream();
+        var deflater = new Deflater(6, 15, 8, W_GZIP);
+        var compressed = new byte[4 << 20];
+        deflater.setOutput(compressed);
+        for (int i = 0; i < 6; i++) {
+            var text = text(r, 150000);
+            var inner = new Deflater(9, 15, 8, W_NONE);
+            var stream = new byte[100000];
+            inner.setInput(text);
+            inner.setOutput(stream);
+            assertEquals(Z_STREAM_END, inner.deflate(Z_FINISH));
+            stream = Arrays.copyOf(stream, (int) inner.getTotalOut());
+
+            data.writeBytes(text);
+            data.writeBytes(stream);
+            deflater.params(6, Z_DEFAULT_STRATEGY);
+            deflater.setInput(text);
+            assertEquals(Z_OK, deflater.deflate(Z_SYNC_FLUSH));
+            deflater.params(0, Z_DEFAULT_STRATEGY);
+            deflater.setInput(stream);
+            assertEquals(Z_OK, deflater.deflate(Z_SYNC_FLUSH));
+        }
+        deflater.setInput(new byte[0]);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+        compressed = Arrays.copyOf(compressed, (int) deflater.getTotalOut());
+
+        var out = new ByteArrayOutputStream();
+        new ParallelInflater(executor, 3, 1 << 16).inflate(compressed, out);
+        assertArrayEquals(data.toByteArray(), out.toByteArray());
+    }
+
+    @Test
+    public void inflateCorruptOrTruncated() throws Exception {
+        var data = text(new Random(3), 1 << 20);
+        var compressed = gzip(data);
+        var inflater = new ParallelInflater(executor, 3, 1 << 16);
+
+        var truncated = Arrays.copyOf(compressed, compressed.length - 100);
+        assertThrows(IOException.class, () -> inflater.inflate(truncated, new ByteArrayOutputStream()));
+
+        compressed[compressed.length - 8] ^= 1;
+        var e = assertThrows(GZIPException.class, () -> inflater.inflate(compressed, new ByteArrayOutputStream()));
+        assertEquals("incorrect data check", e.getMessage());
+    }
+}
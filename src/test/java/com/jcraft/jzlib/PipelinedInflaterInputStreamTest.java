@@ -0,0 +1,147 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+
+import static com.jcraft.jzlib.JZlib.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PipelinedInflaterInputStreamTest {
+
+    private static byte[] data() {
+        var data = new byte[1 << 20];
+        var r = TestUtil.randombuf(4000);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = r[(i * 3 + i / 700) % r.length];
+        }
+        // some of it does not compress, and goes in stored blocks
+        System.arraycopy(TestUtil.randombuf(100000), 0, data, 300000, 100000);
+        return data;
+    }
+
+    private static byte[] compress(byte[] data, int level, JZlib.WrapperType wrapperType) throws GZIPException {
+        var deflater = new Deflater(level, 15, 8, wrapperType);
+        var out = new byte[data.length + 1000];
+        deflater.setInput(data);
+        deflater.setOutput(out);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+        return Arrays.copyOf(out, (int) deflater.getTotalOut());
+    }
+
+    private static byte[] readAll(PipelinedInflaterInputStream in, int size) throws IOException {
+        var out = new ByteArrayOutputStream();
+        var buf = new byte[size];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void inflateAllWrappers() throws Exception {
+        var data = data();
+        for (var wrapperType : new JZlib.WrapperType[]{W_NONE, W_ZLIB, W_GZIP, W_ANY}) {
+            for (var level : new int[]{0, 1, 6, 9}) {
+                var compressed = compress(data, level, wrapperType == W_ANY ? W_GZIP : wrapperType);
+                for (var size : new int[]{1000, 100000}) {
+                    var in = new PipelinedInflaterInputStream(new ByteArrayInputStream(compressed), wrapperType);
+                    assertArrayEquals(data, readAll(in, size), wrapperType + " " + level + " " + size);
+                    assertEquals(compressed.length, in.getTotalIn());
+                    assertEquals(data.length, in.getTotalOut());
+                    in.close();
+                }
+            }
+        }
+
+        // as with Inflater, W_ANY takes zlib, and raw deflate
+        for (var wrapperType : new JZlib.WrapperType[]{W_ZLIB, W_NONE}) {
+            var compressed = compress(data, 6, wrapperType);
+            var in = new PipelinedInflaterInputStream(new ByteArrayInputStream(compressed), W_ANY);
+            assertArrayEquals(data, readAll(in, 4096), wrapperType.toString());
+        }
+
+        var empty = compress(new byte[0], 6, W_GZIP);
+        var in = new PipelinedInflaterInputStream(new ByteArrayInputStream(empty), W_GZIP);
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void inflateOnExecutor() throws Exception {
+        var data = data();
+        var compressed = compress(data, 6, W_ZLIB);
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var in = new PipelinedInflaterInputStream(new ByteArrayInputStream(compressed),
+                W_ZLIB, 512, true, executor);
+            assertEquals(data[0] & 0xff, in.read());
+            assertEquals(100000, in.skip(100000));
+            var rest = readAll(in, 777);
+            assertArrayEquals(Arrays.copyOfRange(data, 100001, data.length), rest);
+            assertEquals(-1, in.read());
+            assertEquals(0, in.skip(10));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void corruptInputFailsAfterTheOutputBeforeIt() throws Exception {
+        var data = data();
+        var compressed = compress(data, 6, W_GZIP);
+
+        var bad = compressed.clone();
+        bad[bad.length - 8] ^= 1;
+        var in = new PipelinedInflaterInputStream(new ByteArrayInputStream(bad), W_GZIP);
+        var e = assertThrows(IOException.class, () -> readAll(in, 4096));
+        assertEquals("incorrect data check", e.getMessage());
+
+        bad = compressed.clone();
+        bad[bad.length - 4] ^= 1;
+        var in2 = new PipelinedInflaterInputStream(new ByteArrayInputStream(bad), W_GZIP);
+        e = assertThrows(IOException.class, () -> readAll(in2, 4096));
+        assertEquals("incorrect length check", e.getMessage());
+
+        var truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        var in3 = new PipelinedInflaterInputStream(new ByteArrayInputStream(truncated), W_GZIP);
+        var out = new byte[data.length];
+        int n = 0;
+        try {
+            int k;
+            while ((k = in3.read(out, n, out.length - n)) > 0) {
+                n += k;
+            }
+        } catch (IOException expected) {
+        }
+        assertThrows(IOException.class, in3::read);
+        var inflater = new Inflater(W_GZIP);
+        var expected = new byte[data.length];
+        inflater.setInput(truncated);
+        inflater.setOutput(expected);
+        inflater.inflate(Z_NO_FLUSH);
+        assertEquals(inflater.getTotalOut(), n);
+        assertArrayEquals(Arrays.copyOf(data, n), Arrays.copyOf(out, n));
+
+        var in4 = new PipelinedInflaterInputStream(new ByteArrayInputStream("not zlib".getBytes()), W_ZLIB);
+        e = assertThrows(IOException.class, in4::read);
+        assertEquals("incorrect header check", e.getMessage());
+    }
+
+    @Test
+    public void closeStopsTheDecoder() throws Exception {
+        var data = data();
+        var compressed = compress(data, 6, W_ZLIB);
+        var in = new PipelinedInflaterInputStream(new ByteArrayInputStream(compressed));
+        assertEquals(data[0] & 0xff, in.read());
+        in.close();
+        assertThrows(IOException.class, in::read);
+    }
+}
@@ -0,0 +1,130 @@
+package com.jcraft.jzlib;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static com.jcraft.jzlib.JZlib.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VerifierTest {
+
+    @TempDir
+    Path dir;
+
+    private static byte[] data() {
+        var data = new byte[500000];
+        var r = TestUtil.randombuf(3000);
+        for (int i = 0; i < data.length; i++) {
+            data[i] = r[(i * 3 + i / 800) % r.length];
+        }
+        return data;
+    }
+
+    private static byte[] compress(byte[] data, JZlib.WrapperType wrapperType) throws GZIPException {
+        var deflater = new Deflater(Z_DEFAULT_COMPRESSION, 15, 8, wrapperType);
+        var out = new byte[data.length + 1000];
+        deflater.setInput(data);
+        deflater.setOutput(out);
+        assertEquals(Z_STREAM_END, deflater.deflate(Z_FINISH));
+        return Arrays.copyOf(out, (int) deflater.getTotalOut());
+    }
+
+    private static Verifier.Result verify(byte[] b) throws Exception {
+        return Verifier.verify(new ByteArrayInputStream(b));
+    }
+
+    @Test
+    public void verifyGoodStreams() throws Exception {
+        var data = data();
+        var gzip = compress(data, W_GZIP);
+        var zlib = compress(data, W_ZLIB);
+
+        var result = verify(zlib);
+        assertTrue(result.isOk(), result.toString());
+        assertEquals(zlib.length, result.getCompressedSize());
+        assertEquals(data.length, result.getUncompressedSize());
+        assertEquals(-1, result.getFailureOffset());
+
+        var members = new ByteArrayOutputStream();
+        members.writeBytes(gzip);
+        members.writeBytes(compress(new byte[0], W_GZIP));
+        members.writeBytes(gzip);
+        members.writeBytes(new byte[100]);
+        result = verify(members.toByteArray());
+        assertTrue(result.isOk(), result.toString());
+        assertNull(result.getMessage());
+        assertEquals(3, result.getMembers());
+        assertEquals(members.size(), result.getCompressedSize());
+        assertEquals(2L * data.length, result.getUncompressedSize());
+    }
+
+    @Test
+    public void verifyBadStreams() throws Exception {
+        var data = data();
+        var gzip = compress(data, W_GZIP);
+
+        var b = gzip.clone();
+        b[b.length - 8] ^= 1;
+        var result = verify(b);
+        assertEquals("incorrect data check", result.getMessage());
+        assertTrue(result.getFailureOffset() > b.length - 8, result.toString());
+        assertEquals(data.length, result.getUncompressedSize());
+
+        b = gzip.clone();
+        b[b.length - 1] ^= 1;
+        assertEquals("incorrect length check", verify(b).getMessage());
+
+        result = verify(Arrays.copyOf(gzip, gzip.length / 2));
+        assertEquals("unexpected end of stream", result.getMessage());
+        assertEquals(gzip.length / 2, result.getFailureOffset());
+
+        b = gzip.clone();
+        b[b.length / 2] ^= 0x55;
+        result = verify(b);
+        assertFalse(result.isOk());
+        assertTrue(result.getFailureOffset() >= b.length / 2, result.toString());
+
+        b = Arrays.copyOf(gzip, gzip.length + 10);
+        b[gzip.length + 3] = 'x';
+        result = verify(b);
+        assertEquals("trailing garbage", result.getMessage());
+        assertEquals(gzip.length + 3, result.getFailureOffset());
+
+        assertEquals("incorrect header check", verify("not compressed".getBytes()).getMessage());
+        assertFalse(verify(new byte[0]).isOk());
+    }
+
+    @Test
+    public void verifyFiles() throws Exception {
+        var data = data();
+        var good = dir.resolve("good.gz");
+        var bad = dir.resolve("bad.gz");
+        var missing = dir.resolve("missing.gz");
+        Files.write(good, compress(data, W_GZIP));
+        Files.write(bad, Arrays.copyOf(compress(data, W_ZLIB), 1000));
+
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            var results = Verifier.verify(List.of(good, bad, missing), executor);
+            assertEquals(List.of(good, bad, missing), List.copyOf(results.keySet()));
+            assertTrue(results.get(good).isOk());
+            assertEquals(data.length, results.get(good).getUncompressedSize());
+            assertFalse(results.get(bad).isOk());
+            assertFalse(results.get(missing).isOk());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}